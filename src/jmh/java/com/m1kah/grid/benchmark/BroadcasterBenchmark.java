@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.benchmark;
+
+import com.m1kah.grid.data.BatchResult;
+import com.m1kah.grid.data.TransactionField;
+import com.m1kah.grid.data.TransactionRepository;
+import com.m1kah.grid.ui.BroadcastListener;
+import com.m1kah.grid.ui.Broadcaster;
+import com.m1kah.grid.ui.Interest;
+import com.vaadin.shared.Registration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cost of notifying registered listeners about one refresh until every
+ * interested listener has received it. Listeners are stubs that only
+ * count updates so no servlet container is needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcasterBenchmark {
+    @Param({"1", "100", "1000", "10000"})
+    public int listeners;
+    @Param({"1000"})
+    public int rows;
+    /**
+     * Share of rows changed in one refresh.
+     */
+    @Param({"0.01", "0.3", "1.0"})
+    public double updateRatio;
+    /**
+     * Number of random rows each listener is interested in, 0 for all.
+     */
+    @Param({"0", "10"})
+    public int portfolio;
+    private final List<Registration> registrations = new ArrayList<>();
+    private final LongAdder delivered = new LongAdder();
+    private BatchResult batch;
+    /**
+     * Deliveries one notification makes.
+     */
+    private int interested;
+    private long expected;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        List<BitSet> portfolios = new ArrayList<>();
+        for (int i = 0; i < listeners; i++) {
+            BroadcastListener listener = (ids, fields, aggregates) -> delivered.increment();
+            if (portfolio > 0) {
+                BitSet ids = new BitSet(rows);
+                random.ints(0, rows).limit(portfolio).forEach(ids::set);
+                registrations.add(Broadcaster.addBroadcastListener(listener, Interest.ids(ids)));
+                portfolios.add(ids);
+            } else {
+                registrations.add(Broadcaster.addBroadcastListener(listener));
+            }
+        }
+        BitSet updatedTransactionIds = new BitSet(rows);
+        updatedTransactionIds.set(0, (int) (rows * updateRatio));
+        batch = new BatchResult(
+                updatedTransactionIds,
+                new BitSet(),
+                EnumSet.of(TransactionField.AMOUNT, TransactionField.UPDATED),
+                new TransactionRepository().aggregates(),
+                0);
+        interested = portfolio > 0
+                ? (int) portfolios.stream().filter(updatedTransactionIds::intersects).count()
+                : listeners;
+        expected = delivered.sum();
+    }
+
+    @TearDown
+    public void tearDown() {
+        registrations.forEach(Registration::remove);
+        registrations.clear();
+    }
+
+    /**
+     * Waits for the dispatcher threads to deliver before returning, so
+     * that the next notification is not merged into a pending one.
+     */
+    @Benchmark
+    public void notifyUis() {
+        expected += interested;
+        Broadcaster.notifyUis(batch);
+        while (delivered.sum() < expected) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.benchmark;
+
+import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionField;
+import com.m1kah.grid.data.TransactionRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups, updates and sorted paging in a repository of given size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionRepositoryBenchmark {
+    @Param({"10", "1000", "100000", "1000000"})
+    public int rows;
+    private TransactionRepository repository;
+    private String[] names;
+
+    @Setup
+    public void setUp() {
+        repository = new TransactionRepository();
+        for (int i = repository.count(); i < rows; i++) {
+            repository.insert(Transaction.create("Stone " + i));
+        }
+        List<Transaction> all = repository.findAll();
+        names = new String[all.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = all.get(i).getName();
+        }
+    }
+
+    /**
+     * Names looked up in one bulk find. Kept apart so that its parameter
+     * only multiplies {@link #findUpdated}.
+     */
+    @State(Scope.Benchmark)
+    public static class Updated {
+        /**
+         * Share of rows looked up in one bulk find.
+         */
+        @Param({"0.01", "0.3", "1.0"})
+        public double updateRatio;
+        private List<String> names;
+
+        @Setup
+        public void setUp(TransactionRepositoryBenchmark benchmark) {
+            names = new ArrayList<>();
+            for (String name : benchmark.names) {
+                if (ThreadLocalRandom.current().nextDouble() < updateRatio) {
+                    names.add(name);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Transaction find() {
+        return repository.find(randomName());
+    }
+
+    @Benchmark
+    public List<Transaction> findUpdated(Updated updated) {
+        return repository.findAll(updated.names);
+    }
+
+    @Benchmark
+    public void update() {
+        Transaction transaction = repository.find(randomName());
+        repository.update(transaction.withAmount(
+                transaction.getAmountMinor() + ThreadLocalRandom.current().nextInt(10000),
+                System.currentTimeMillis()));
+    }
+
+    @Benchmark
+    public List<Transaction> sortedPage() {
+        int offset = ThreadLocalRandom.current().nextInt(names.length);
+        return repository.findAll(offset, 50, TransactionField.AMOUNT, false);
+    }
+
+    private String randomName() {
+        return names[ThreadLocalRandom.current().nextInt(names.length)];
+    }
+}
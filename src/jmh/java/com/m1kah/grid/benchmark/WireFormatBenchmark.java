@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.benchmark;
+
+import com.m1kah.grid.data.ChangeDecoder;
+import com.m1kah.grid.data.ChangeEncoder;
+import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionChange;
+import com.m1kah.grid.data.TransactionField;
+import com.m1kah.grid.data.TransactionRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding a batch of changes with the binary change format
+ * compared to Java serialization of the changed transactions. Setup
+ * checks that batches decode back to the same changes and prints the
+ * encoded sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+    @Param({"100", "10000"})
+    public int changes;
+    private List<TransactionChange> batch;
+    private List<Transaction> transactions;
+    private ByteBuffer buffer;
+    private ChangeEncoder encoder;
+    private ChangeDecoder decoder;
+    private ByteArrayOutputStream bytes;
+
+    @Setup
+    public void setUp() throws IOException, ClassNotFoundException {
+        TransactionRepository repository = new TransactionRepository();
+        for (int i = repository.count(); i < changes; i++) {
+            repository.insert(Transaction.create("Stone " + i));
+        }
+        long version = repository.currentVersion();
+        for (Transaction transaction : repository.findAll()) {
+            long amount = ThreadLocalRandom.current().nextLong(1000000);
+            repository.update(transaction.withAmount(amount, transaction.getUpdatedMillis() + amount % 1000));
+        }
+        batch = repository.changesSince(version).orElseThrow(IllegalStateException::new);
+        transactions = new ArrayList<>();
+        for (TransactionChange change : batch) {
+            transactions.add(change.getTransaction());
+        }
+        buffer = ByteBuffer.allocate(64 * batch.size() + 64);
+        encoder = new ChangeEncoder();
+        decoder = new ChangeDecoder();
+        bytes = new ByteArrayOutputStream();
+
+        int firstSize = encode();
+        checkRoundTrip();
+        int internedSize = encode();
+        checkRoundTrip();
+        System.out.printf("%nbytes per change: format %.1f, interned %.1f, serialization %.1f%n",
+                (double) firstSize / batch.size(),
+                (double) internedSize / batch.size(),
+                (double) serialize() / batch.size());
+        if (!transactions.equals(deserialize())) {
+            throw new IllegalStateException("Serialization round trip failed");
+        }
+    }
+
+    private int encode() {
+        buffer.clear();
+        encoder.begin(buffer, batch.get(0).getVersion(), batch.get(0).getTransaction().getUpdatedMillis());
+        for (TransactionChange change : batch) {
+            encoder.add(change);
+        }
+        encoder.finish();
+        buffer.flip();
+        return buffer.limit();
+    }
+
+    private void checkRoundTrip() {
+        decoder.begin(buffer);
+        for (TransactionChange change : batch) {
+            if (!decoder.next()) {
+                throw new IllegalStateException("Batch ended early");
+            }
+            Transaction transaction = change.getTransaction();
+            boolean same = decoder.getName().equals(transaction.getName())
+                    && decoder.getVersion() == change.getVersion()
+                    && decoder.isInsert() == change.isInsert()
+                    && decoder.toTransaction(transaction).getAmountMinor() == transaction.getAmountMinor()
+                    && decoder.toTransaction(transaction).getUpdatedMillis() == transaction.getUpdatedMillis();
+            for (TransactionField field : TransactionField.values()) {
+                same &= decoder.hasField(field) == change.getChangedFields().contains(field);
+            }
+            if (!same) {
+                throw new IllegalStateException("Round trip failed for " + transaction.getName());
+            }
+        }
+        if (decoder.next()) {
+            throw new IllegalStateException("Batch has extra records");
+        }
+    }
+
+    private int serialize() throws IOException {
+        bytes.reset();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(transactions);
+        }
+        return bytes.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Transaction> deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (List<Transaction>) in.readObject();
+        }
+    }
+
+    private void decode(Blackhole blackhole) {
+        decoder.begin(buffer);
+        while (decoder.next()) {
+            blackhole.consume(decoder.getId());
+            blackhole.consume(decoder.getAmountMinor());
+            blackhole.consume(decoder.getUpdatedMillis());
+        }
+    }
+
+    /**
+     * Steady stream where names have already been sent.
+     */
+    @Benchmark
+    public void formatInterned(Blackhole blackhole) {
+        encode();
+        decode(blackhole);
+    }
+
+    /**
+     * Self-contained batch, like one datagram.
+     */
+    @Benchmark
+    public void formatSelfContained(Blackhole blackhole) {
+        encoder.reset();
+        decoder.reset();
+        encode();
+        decode(blackhole);
+    }
+
+    @Benchmark
+    public List<Transaction> javaSerialization() throws IOException, ClassNotFoundException {
+        serialize();
+        return deserialize();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.task;
+
+import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One background refresh over a repository of given size. Each trial
+ * refreshes a repository of its own, so the rows added for one size do
+ * not end up in the next. Lives in the task package because the task is
+ * not public.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RefreshDataTaskBenchmark {
+    @Param({"10", "1000", "100000", "1000000"})
+    public int rows;
+    private RefreshDataTask task;
+    private BitSet lastUpdated;
+
+    @Setup
+    public void setUp() {
+        TransactionRepository repository = new TransactionRepository();
+        for (int i = repository.count(); i < rows; i++) {
+            repository.insert(Transaction.create("Stone " + i));
+        }
+        task = new RefreshDataTask(
+                repository,
+                result -> lastUpdated = result.getIds(),
+                t -> {
+                    throw new IllegalStateException(t);
+                },
+                progress -> { },
+                ForkJoinPool.commonPool(),
+                1024);
+    }
+
+    @Benchmark
+    public BitSet run() {
+        task.run();
+        return lastUpdated;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.cluster;
+
+import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionRepository;
+import com.m1kah.grid.metrics.Histogram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs several cluster nodes in process and measures how long changes
+ * published by the leader take to reach the other nodes.
+ *
+ * Configured with system properties:
+ * <ul>
+ *     <li>loadtest.nodes, number of nodes</li>
+ *     <li>loadtest.transport, local (default) or udp over loopback</li>
+ *     <li>loadtest.rows, number of transactions</li>
+ *     <li>loadtest.batch, transactions changed per publish</li>
+ *     <li>loadtest.publishMillis, time between publishes</li>
+ *     <li>loadtest.seconds, duration of the test</li>
+ * </ul>
+ *
+ * Run with -Dloadtest.main=com.m1kah.grid.cluster.ClusterLoadTest.
+ */
+public class ClusterLoadTest {
+    private static final int BASE_PORT = 17400;
+    private final int nodeCount = Integer.getInteger("loadtest.nodes", 3);
+    private final boolean udp = "udp".equals(System.getProperty("loadtest.transport"));
+    private final int rows = Integer.getInteger("loadtest.rows", 1000);
+    private final int batch = Integer.getInteger("loadtest.batch", 100);
+    private final long publishMillis = Long.getLong("loadtest.publishMillis", 50);
+    private final long seconds = Long.getLong("loadtest.seconds", 10);
+    private final Histogram latency = new Histogram();
+    private volatile long publishedNanos;
+    // Initial copy of all transactions is not measured.
+    private volatile boolean measuring;
+
+    public static void main(String[] args) throws Exception {
+        new ClusterLoadTest().run();
+    }
+
+    private void run() throws Exception {
+        Set<LocalClusterTransport> network = LocalClusterTransport.newNetwork();
+        List<ClusterNode> nodes = new ArrayList<>();
+        List<TransactionRepository> repositories = new ArrayList<>();
+        for (int i = 0; i < nodeCount; i++) {
+            TransactionRepository repository = new TransactionRepository();
+            repositories.add(repository);
+            ClusterNode node = new ClusterNode(
+                    "node-" + i,
+                    udp ? udpTransport(i) : LocalClusterTransport.join(network),
+                    repository,
+                    result -> {
+                        if (measuring) {
+                            latency.record(System.nanoTime() - publishedNanos);
+                        }
+                    },
+                    100,
+                    500);
+            node.start();
+            nodes.add(node);
+        }
+        ClusterNode leader = nodes.get(0);
+        TransactionRepository leaderRepository = repositories.get(0);
+        while (!leader.isLeader()) {
+            Thread.sleep(10);
+        }
+        for (int i = leaderRepository.count(); i < rows; i++) {
+            leaderRepository.insert(Transaction.create("Stone " + i));
+        }
+        publishedNanos = System.nanoTime();
+        leader.publishAll();
+        Thread.sleep(500);
+        measuring = true;
+
+        Random random = new Random();
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds);
+        long published = 0;
+        while (System.currentTimeMillis() < end) {
+            List<Transaction> transactions = leaderRepository.findAll();
+            BitSet ids = new BitSet(transactions.size());
+            for (int i = 0; i < batch; i++) {
+                int id = random.nextInt(transactions.size());
+                leaderRepository.update(transactions.get(id).withAmount(random.nextInt(100000), System.currentTimeMillis()));
+                ids.set(id);
+            }
+            publishedNanos = System.nanoTime();
+            leader.publish(ids);
+            published++;
+            Thread.sleep(publishMillis);
+        }
+        Thread.sleep(500);
+        nodes.forEach(ClusterNode::stop);
+        report(published, repositories, nodes);
+    }
+
+    private ClusterTransport udpTransport(int node) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (int i = 0; i < nodeCount; i++) {
+            if (i != node) {
+                peers.add(new InetSocketAddress("localhost", BASE_PORT + i));
+            }
+        }
+        return new UdpClusterTransport(BASE_PORT + node, peers);
+    }
+
+    private void report(long published, List<TransactionRepository> repositories, List<ClusterNode> nodes) {
+        System.out.printf("nodes %d over %s, rows %d, %d changes every %d ms, %d s%n",
+                nodeCount, udp ? "udp" : "local", rows, batch, publishMillis, seconds);
+        System.out.printf("published batches %d, applied batches %d%n", published, latency.getCount());
+        System.out.printf("propagation us p50 %d, p99 %d, p99.9 %d, max %d%n",
+                micros(latency.getPercentile(0.5)),
+                micros(latency.getPercentile(0.99)),
+                micros(latency.getPercentile(0.999)),
+                micros(latency.getMax()));
+        List<Transaction> expected = repositories.get(0).findAll();
+        for (int i = 1; i < repositories.size(); i++) {
+            int differing = 0;
+            for (Transaction transaction : expected) {
+                Transaction copy = repositories.get(i).find(transaction.getName());
+                if (copy == null || copy.getAmountMinor() != transaction.getAmountMinor()) {
+                    differing++;
+                }
+            }
+            System.out.printf("node-%d differs from leader in %d transactions, asked for all %d times%n",
+                    i, differing, nodes.get(i).getResyncCount());
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.task;
+
+import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionAggregates;
+import com.m1kah.grid.data.TransactionChange;
+import com.m1kah.grid.data.TransactionField;
+import com.m1kah.grid.data.TransactionRepository;
+import com.m1kah.grid.ui.BroadcastListener;
+import com.m1kah.grid.ui.Broadcaster;
+import com.m1kah.grid.ui.Interest;
+import com.vaadin.shared.Registration;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the refresh and push pipeline in process against simulated UIs
+ * and reports how it keeps up.
+ *
+ * Each simulated UI holds a lock while handling an update, like
+ * {@code UI.access} holds the session lock, and spends a configurable
+ * time per rendered row. Some of the UIs are slow. Request threads take
+ * the same lock to simulate client requests such as scrolling, so updates
+ * wait for the lock the way they wait for the session lock in a servlet
+ * container. Latency is measured from the time a transaction was updated
+ * by {@link RefreshDataTask} to the time a UI applied the change, and
+ * includes the time waiting for the lock.
+ *
+ * Configured with system properties:
+ * <ul>
+ *     <li>loadtest.sessions, number of simulated UIs</li>
+ *     <li>loadtest.rows, number of transactions</li>
+ *     <li>loadtest.refreshMillis, interval between refreshes</li>
+ *     <li>loadtest.renderMicros, time to render one changed row</li>
+ *     <li>loadtest.visibleRows, most rows rendered per update</li>
+ *     <li>loadtest.slowShare, share of slow UIs</li>
+ *     <li>loadtest.slowFactor, how many times slower the slow UIs render</li>
+ *     <li>loadtest.portfolio, number of rows each UI is interested in,
+ *     0 for all rows</li>
+ *     <li>loadtest.requestMillis, interval between requests of each UI,
+ *     0 for no requests</li>
+ *     <li>loadtest.requestMicros, time a request holds the lock</li>
+ *     <li>loadtest.requestThreads, number of threads handling requests</li>
+ *     <li>loadtest.seconds, duration of the test</li>
+ * </ul>
+ *
+ * Lives in the task package because the task is not public.
+ */
+public class PushLoadTest {
+    private static final int LATENCY_BUCKETS = 60_000;
+    private final int sessions = Integer.getInteger("loadtest.sessions", 1000);
+    private final int rows = Integer.getInteger("loadtest.rows", 1000);
+    private final long refreshMillis = Long.getLong("loadtest.refreshMillis", 1000);
+    private final long renderMicros = Long.getLong("loadtest.renderMicros", 20);
+    private final int visibleRows = Integer.getInteger("loadtest.visibleRows", 8);
+    private final double slowShare = Double.parseDouble(System.getProperty("loadtest.slowShare", "0.05"));
+    private final int slowFactor = Integer.getInteger("loadtest.slowFactor", 50);
+    private final int portfolio = Integer.getInteger("loadtest.portfolio", 0);
+    private final long requestMillis = Long.getLong("loadtest.requestMillis", 200);
+    private final long requestMicros = Long.getLong("loadtest.requestMicros", 2000);
+    private final int requestThreads = Integer.getInteger("loadtest.requestThreads", 4);
+    private final long seconds = Long.getLong("loadtest.seconds", 30);
+    /**
+     * Count of applied changes by latency in milliseconds.
+     */
+    private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS + 1);
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong notifications = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    /**
+     * Updates that found the lock held by a request or another update.
+     */
+    private final AtomicLong contendedUpdates = new AtomicLong();
+    private final AtomicLong lockWaitNanos = new AtomicLong();
+    private final AtomicLong maxLockWaitNanos = new AtomicLong();
+    private long maxPending;
+    private long pendingTotal;
+    private long pendingSamples;
+
+    public static void main(String[] args) throws InterruptedException {
+        new PushLoadTest().run();
+    }
+
+    private void run() throws InterruptedException {
+        TransactionRepository repository = TransactionRepository.get();
+        for (int i = repository.count(); i < rows; i++) {
+            repository.insert(Transaction.create("Stone " + i));
+        }
+        long heapBefore = usedHeap();
+        List<Registration> registrations = new ArrayList<>();
+        List<SimulatedUi> uis = new ArrayList<>();
+        Random random = new Random();
+        for (int i = 0; i < sessions; i++) {
+            long cost = random.nextDouble() < slowShare ? renderMicros * slowFactor : renderMicros;
+            if (portfolio > 0) {
+                BitSet ids = new BitSet(rows);
+                random.ints(0, rows).limit(portfolio).forEach(ids::set);
+                SimulatedUi ui = new SimulatedUi(cost, ids);
+                uis.add(ui);
+                registrations.add(Broadcaster.addBroadcastListener(ui, Interest.ids(ids)));
+            } else {
+                SimulatedUi ui = new SimulatedUi(cost, null);
+                uis.add(ui);
+                registrations.add(Broadcaster.addBroadcastListener(ui));
+            }
+        }
+        long heapPerSession = (usedHeap() - heapBefore) / sessions;
+
+        ScheduledExecutorService requestExecutor = Executors.newScheduledThreadPool(requestThreads);
+        if (requestMillis > 0) {
+            for (SimulatedUi ui : uis) {
+                requestExecutor.scheduleAtFixedRate(
+                        ui::handleRequest,
+                        random.nextInt((int) requestMillis),
+                        requestMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        executor.scheduleAtFixedRate(
+                new RefreshDataTask(Broadcaster::notifyUis, Throwable::printStackTrace),
+                refreshMillis,
+                refreshMillis,
+                TimeUnit.MILLISECONDS);
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds);
+        while (System.currentTimeMillis() < end) {
+            long pending = Broadcaster.getPendingUpdateCount();
+            maxPending = Math.max(maxPending, pending);
+            pendingTotal += pending;
+            pendingSamples++;
+            Thread.sleep(100);
+        }
+        executor.shutdownNow();
+        requestExecutor.shutdownNow();
+        registrations.forEach(Registration::remove);
+        Broadcaster.cancelUpdates();
+        report(heapPerSession);
+    }
+
+    private void report(long heapPerSession) {
+        System.out.printf("sessions %d, rows %d, portfolio %d, refresh every %d ms, %d s%n",
+                sessions, rows, portfolio, refreshMillis, seconds);
+        System.out.printf("requests every %d ms per session holding lock %d us on %d threads%n",
+                requestMillis, requestMicros, requestThreads);
+        System.out.printf("notifications %d, applied changes %d, change log overflows %d%n",
+                notifications.get(), applied.get(), overflows.get());
+        System.out.printf("latency ms p50 %d, p90 %d, p99 %d, p99.9 %d, max %d%n",
+                percentile(0.5), percentile(0.9), percentile(0.99), percentile(0.999), percentile(1));
+        System.out.printf("requests %d, updates waiting for lock %d, lock wait us avg %d, max %d%n",
+                requests.get(),
+                contendedUpdates.get(),
+                TimeUnit.NANOSECONDS.toMicros(lockWaitNanos.get() / Math.max(1, contendedUpdates.get())),
+                TimeUnit.NANOSECONDS.toMicros(maxLockWaitNanos.get()));
+        System.out.printf("pending ids avg %d, max %d%n", pendingTotal / Math.max(1, pendingSamples), maxPending);
+        System.out.printf("coalesced notifications %d, demotions %d%n",
+                Broadcaster.getCoalescedUpdateCount(), Broadcaster.getDemotionCount());
+        System.out.printf("heap per session %d bytes%n", heapPerSession);
+    }
+
+    private long percentile(double percentile) {
+        long total = applied.get();
+        long target = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i <= LATENCY_BUCKETS; i++) {
+            seen += latencies.get(i);
+            if (seen >= target && seen > 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void spin(long micros) {
+        long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(micros);
+        while (System.nanoTime() < end) {
+            // Rendering keeps a thread busy.
+        }
+    }
+
+    /**
+     * Handles updates the way GridUi does, without Vaadin.
+     */
+    private class SimulatedUi implements BroadcastListener {
+        private final transient ReentrantLock sessionLock = new ReentrantLock();
+        private final long renderMicros;
+        /**
+         * Ids this UI shows, or null if it shows everything.
+         */
+        private final BitSet portfolio;
+        private long appliedVersion = TransactionRepository.get().currentVersion();
+
+        SimulatedUi(long renderMicros, BitSet portfolio) {
+            this.renderMicros = renderMicros;
+            this.portfolio = portfolio;
+        }
+
+        /**
+         * Simulates a client request handled while holding the lock.
+         */
+        void handleRequest() {
+            sessionLock.lock();
+            try {
+                requests.incrementAndGet();
+                spin(requestMicros);
+            } finally {
+                sessionLock.unlock();
+            }
+        }
+
+        @Override
+        public void onTransactionDataUpdate(BitSet updatedTransactionIds,
+                                            Set<TransactionField> changedFields,
+                                            TransactionAggregates aggregates) {
+            notifications.incrementAndGet();
+            if (!sessionLock.tryLock()) {
+                contendedUpdates.incrementAndGet();
+                long started = System.nanoTime();
+                sessionLock.lock();
+                long waited = System.nanoTime() - started;
+                lockWaitNanos.addAndGet(waited);
+                maxLockWaitNanos.accumulateAndGet(waited, Math::max);
+            }
+            try {
+                TransactionRepository repository = TransactionRepository.get();
+                Optional<List<TransactionChange>> changes = repository.changesSince(appliedVersion);
+                long now = System.currentTimeMillis();
+                int shown = 0;
+                if (!changes.isPresent()) {
+                    // Fall back to notified ids like GridUi does.
+                    overflows.incrementAndGet();
+                    appliedVersion = repository.currentVersion();
+                    for (int id = updatedTransactionIds.nextSetBit(0); id >= 0;
+                         id = updatedTransactionIds.nextSetBit(id + 1)) {
+                        if (portfolio != null && !portfolio.get(id)) {
+                            continue;
+                        }
+                        long latency = now - repository.find(id).getUpdatedMillis();
+                        latencies.incrementAndGet((int) Math.max(0, Math.min(LATENCY_BUCKETS, latency)));
+                        shown++;
+                    }
+                    applied.addAndGet(shown);
+                    spin(renderMicros * Math.min(visibleRows, shown));
+                    return;
+                }
+                for (TransactionChange change : changes.get()) {
+                    appliedVersion = change.getVersion();
+                    if (portfolio != null && !portfolio.get(change.getId())) {
+                        continue;
+                    }
+                    long latency = now - change.getTransaction().getUpdatedMillis();
+                    latencies.incrementAndGet((int) Math.max(0, Math.min(LATENCY_BUCKETS, latency)));
+                    shown++;
+                }
+                applied.addAndGet(shown);
+                spin(renderMicros * Math.min(visibleRows, shown));
+            } finally {
+                sessionLock.unlock();
+            }
+        }
+    }
+}
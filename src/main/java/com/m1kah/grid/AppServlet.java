@@ -22,30 +22,93 @@
 
 package com.m1kah.grid;
 
+import com.m1kah.grid.cluster.Cluster;
+import com.m1kah.grid.cluster.ClusterNode;
+import com.m1kah.grid.cluster.ClusterTransport;
+import com.m1kah.grid.data.TransactionRepository;
+import com.m1kah.grid.data.TransactionStore;
+import com.m1kah.grid.metrics.PushStatistics;
 import com.m1kah.grid.task.BackgroundDataRefresh;
 import com.m1kah.grid.ui.Broadcaster;
 import com.m1kah.grid.ui.GridUi;
 import com.vaadin.annotations.VaadinServletConfiguration;
 import com.vaadin.server.VaadinServlet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.UUID;
 
 @WebServlet(value = "/*", asyncSupported = true, loadOnStartup = 1)
 @VaadinServletConfiguration(productionMode = false, ui = GridUi.class)
 public class AppServlet extends VaadinServlet {
+    private static final Logger logger = LoggerFactory.getLogger(AppServlet.class);
+
     @Override
     public void init(ServletConfig servletConfig) throws ServletException {
         super.init(servletConfig);
+        try {
+            PushStatistics.register();
+        } catch (JMException e) {
+            logger.warn("Failed to register push statistics", e);
+        }
+        // Transactions are kept on disk only when a directory is given.
+        String storeDirectory = System.getProperty("grid.store.dir");
+        if (storeDirectory != null) {
+            try {
+                TransactionStore.start(Paths.get(storeDirectory));
+            } catch (IOException e) {
+                throw new ServletException("Failed to load transactions from " + storeDirectory, e);
+            }
+        }
+        startCluster();
         // Start loading data immediately after servlet is deployed.
         BackgroundDataRefresh.executeAsRepeatingTask();
     }
 
+    /**
+     * Joins other nodes when grid.cluster.peers is set, see
+     * {@link ClusterTransport#fromSystemProperties()}. Node id is read
+     * from grid.cluster.nodeId.
+     */
+    private void startCluster() throws ServletException {
+        ClusterTransport transport = ClusterTransport.fromSystemProperties();
+        if (transport == null) {
+            return;
+        }
+        ClusterNode node = new ClusterNode(
+                System.getProperty("grid.cluster.nodeId", UUID.randomUUID().toString()),
+                transport,
+                TransactionRepository.get(),
+                result -> {
+                    TransactionStore.commit(result.getIds());
+                    Broadcaster.notifyUis(result);
+                },
+                Long.getLong("grid.cluster.heartbeatMillis", 500),
+                Long.getLong("grid.cluster.timeoutMillis", 2000));
+        try {
+            Cluster.start(node);
+        } catch (IOException e) {
+            throw new ServletException("Failed to join cluster", e);
+        }
+    }
+
     @Override
     public void destroy() {
         BackgroundDataRefresh.cancelRepeatingTask();
+        Cluster.stop();
         Broadcaster.cancelUpdates();
+        TransactionStore.stop();
+        try {
+            PushStatistics.unregister();
+        } catch (JMException e) {
+            logger.warn("Failed to unregister push statistics", e);
+        }
         super.destroy();
     }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid;
+
+import com.m1kah.grid.cluster.Cluster;
+import com.m1kah.grid.metrics.Histogram;
+import com.m1kah.grid.metrics.PushMetrics;
+import com.m1kah.grid.task.BackgroundDataRefresh;
+import com.m1kah.grid.ui.Broadcaster;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Plain text view of refresh and push metrics, one value per line.
+ * Times are in nanoseconds.
+ */
+@WebServlet(value = "/metrics", loadOnStartup = 1)
+public class MetricsServlet extends HttpServlet {
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain; charset=UTF-8");
+        PrintWriter out = response.getWriter();
+        value(out, "grid_refresh_interval_millis", BackgroundDataRefresh.getEffectiveIntervalMillis());
+        out.println("grid_refresh_progress " + BackgroundDataRefresh.getProgress());
+        histogram(out, "grid_refresh_duration_nanos", PushMetrics.REFRESH_DURATION);
+        histogram(out, "grid_refresh_updates", PushMetrics.REFRESH_UPDATES);
+        histogram(out, "grid_broadcast_fan_out_nanos", PushMetrics.BROADCAST_FAN_OUT);
+        histogram(out, "grid_access_wait_nanos", PushMetrics.ACCESS_WAIT);
+        histogram(out, "grid_access_execution_nanos", PushMetrics.ACCESS_EXECUTION);
+        value(out, "grid_listeners", Broadcaster.getListenerCount());
+        value(out, "grid_push_queue_depth", Broadcaster.getPushQueueDepth());
+        value(out, "grid_pending_updates", Broadcaster.getPendingUpdateCount());
+        value(out, "grid_coalesced_updates_total", Broadcaster.getCoalescedUpdateCount());
+        value(out, "grid_dropped_updates_total", PushMetrics.DROPPED_UPDATES.sum());
+        value(out, "grid_pushes_total", PushMetrics.PUSHES.sum());
+        value(out, "grid_demotions_total", Broadcaster.getDemotionCount());
+        value(out, "grid_cluster_leader", Cluster.isLeader() ? 1 : 0);
+        histogram(out, "grid_cluster_propagation_nanos", PushMetrics.CLUSTER_PROPAGATION);
+    }
+
+    private static void histogram(PrintWriter out, String name, Histogram histogram) {
+        for (double quantile : QUANTILES) {
+            out.println(name + "{quantile=\"" + quantile + "\"} " + histogram.getPercentile(quantile));
+        }
+        value(out, name + "_max", histogram.getMax());
+        value(out, name + "_sum", histogram.getSum());
+        value(out, name + "_count", histogram.getCount());
+    }
+
+    private static void value(PrintWriter out, String name, long value) {
+        out.println(name + " " + value);
+    }
+}
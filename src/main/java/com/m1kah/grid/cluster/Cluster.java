@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.cluster;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Cluster node of this process. Without a node, this process is alone
+ * and always leads.
+ */
+public class Cluster {
+    private static volatile ClusterNode node;
+
+    public static void start(ClusterNode clusterNode) throws IOException {
+        clusterNode.start();
+        node = clusterNode;
+    }
+
+    public static boolean isLeader() {
+        ClusterNode current = node;
+        return current == null || current.isLeader();
+    }
+
+    /**
+     * Sends changed transactions to other nodes, if any.
+     */
+    public static void publish(BitSet transactionIds) {
+        ClusterNode current = node;
+        if (current != null) {
+            current.publish(transactionIds);
+        }
+    }
+
+    public static void stop() {
+        ClusterNode current = node;
+        node = null;
+        if (current != null) {
+            current.stop();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.cluster;
+
+import com.m1kah.grid.data.Transaction;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Message sent between nodes. Either a heartbeat that tells a node is
+ * alive, a batch of changed transactions, all transactions, or a request
+ * to send all transactions.
+ *
+ * Batches sent by a node are numbered with consecutive versions, and a
+ * heartbeat carries the version of the latest batch its node has sent,
+ * so a receiver can tell when it has missed one. A transport that splits
+ * a batch into several messages numbers the parts.
+ */
+public final class ClusterMessage {
+    public enum Type {
+        HEARTBEAT,
+        CHANGES,
+        /**
+         * Current state of all transactions of the sending node.
+         */
+        ALL,
+        /**
+         * Request to the leader to send {@link #ALL}.
+         */
+        RESYNC
+    }
+
+    private final Type type;
+    private final String nodeId;
+    private final long sentMillis;
+    private final long version;
+    private final List<Transaction> transactions;
+    private final int part;
+    private final boolean lastPart;
+
+    public ClusterMessage(Type type, String nodeId, long sentMillis, long version, List<Transaction> transactions) {
+        this(type, nodeId, sentMillis, version, transactions, 0, true);
+    }
+
+    public ClusterMessage(Type type,
+                          String nodeId,
+                          long sentMillis,
+                          long version,
+                          List<Transaction> transactions,
+                          int part,
+                          boolean lastPart) {
+        this.type = type;
+        this.nodeId = nodeId;
+        this.sentMillis = sentMillis;
+        this.version = version;
+        this.transactions = transactions;
+        this.part = part;
+        this.lastPart = lastPart;
+    }
+
+    public static ClusterMessage heartbeat(String nodeId, long version) {
+        return new ClusterMessage(Type.HEARTBEAT, nodeId, System.currentTimeMillis(), version, Collections.emptyList());
+    }
+
+    public static ClusterMessage changes(String nodeId, long version, List<Transaction> transactions) {
+        return new ClusterMessage(Type.CHANGES, nodeId, System.currentTimeMillis(), version, transactions);
+    }
+
+    public static ClusterMessage all(String nodeId, long version, List<Transaction> transactions) {
+        return new ClusterMessage(Type.ALL, nodeId, System.currentTimeMillis(), version, transactions);
+    }
+
+    public static ClusterMessage resync(String nodeId, long version) {
+        return new ClusterMessage(Type.RESYNC, nodeId, System.currentTimeMillis(), version, Collections.emptyList());
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Node that sent the message.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Wall clock time the message was sent.
+     */
+    public long getSentMillis() {
+        return sentMillis;
+    }
+
+    /**
+     * Version of the batch, or of the latest batch sent by the node in a
+     * heartbeat.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Index of this part of a batch, starting from 0.
+     */
+    public int getPart() {
+        return part;
+    }
+
+    public boolean isLastPart() {
+        return lastPart;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+}
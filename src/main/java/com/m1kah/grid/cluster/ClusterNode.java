@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.cluster;
+
+import com.m1kah.grid.data.BatchResult;
+import com.m1kah.grid.data.Mutation;
+import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionRepository;
+import com.m1kah.grid.metrics.PushMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * One node of a cluster. Nodes send heartbeats to each other and the
+ * live node with the smallest id is the leader. Only the leader
+ * refreshes transactions and publishes the changed ones. Other nodes
+ * apply published changes to their own repository and notify their
+ * own UIs.
+ *
+ * A node that has just started does not lead before it has had time to
+ * hear from the others. When a new node shows up, the leader publishes
+ * all transactions so that the new node catches up.
+ *
+ * Delivery is best effort, so followers keep track of the batches they
+ * have received from the leader. When a batch or a part of it is missing,
+ * or a heartbeat of the leader still shows a newer batch one heartbeat
+ * later, the follower asks the leader to send all transactions again.
+ * Until it has received them completely it asks again at most once per
+ * timeout.
+ *
+ * Propagation latency is measured with wall clocks of the nodes, so it
+ * is only as accurate as their clocks are in sync.
+ */
+public class ClusterNode {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterNode.class);
+    private final String nodeId;
+    private final ClusterTransport transport;
+    private final TransactionRepository repository;
+    private final Consumer<BatchResult> changeListener;
+    private final long heartbeatMillis;
+    private final long timeoutMillis;
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "grid-cluster-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Long> lastSeenMillis = new ConcurrentHashMap<>();
+    /**
+     * What has been received from each node. Only touched by the thread
+     * receiving messages.
+     */
+    private final Map<String, Peer> peers = new HashMap<>();
+    /**
+     * Version of the latest batch this node has sent.
+     */
+    private final AtomicLong publishedVersion = new AtomicLong();
+    private final AtomicLong resyncCount = new AtomicLong();
+    private volatile long publishedAllMillis;
+    private volatile long startedMillis;
+    private volatile boolean leader;
+
+    /**
+     * @param changeListener called with what changes made by another node
+     *                       changed in this node's repository
+     * @param heartbeatMillis time between heartbeats
+     * @param timeoutMillis time without heartbeats after which a node is
+     *                      considered gone
+     */
+    public ClusterNode(
+            String nodeId,
+            ClusterTransport transport,
+            TransactionRepository repository,
+            Consumer<BatchResult> changeListener,
+            long heartbeatMillis,
+            long timeoutMillis) {
+        this.nodeId = nodeId;
+        this.transport = transport;
+        this.repository = repository;
+        this.changeListener = changeListener;
+        this.heartbeatMillis = heartbeatMillis;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public void start() throws IOException {
+        startedMillis = System.currentTimeMillis();
+        transport.start(this::receive);
+        heartbeats.scheduleAtFixedRate(this::heartbeat, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+        logger.info("Joined cluster as {}", nodeId);
+    }
+
+    public void stop() {
+        heartbeats.shutdownNow();
+        transport.close();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * Sends current state of given transactions to other nodes.
+     */
+    public void publish(BitSet transactionIds) {
+        if (transactionIds.isEmpty()) {
+            return;
+        }
+        // State is read under the same lock that assigns the version, so a
+        // higher version never carries older state than a lower one.
+        synchronized (publishedVersion) {
+            List<Transaction> transactions = repository.findAll(transactionIds);
+            transport.send(ClusterMessage.changes(nodeId, publishedVersion.incrementAndGet(), transactions));
+        }
+    }
+
+    /**
+     * Sends current state of all transactions to other nodes.
+     */
+    public void publishAll() {
+        publishedAllMillis = System.currentTimeMillis();
+        synchronized (publishedVersion) {
+            List<Transaction> transactions = repository.findAll();
+            transport.send(ClusterMessage.all(nodeId, publishedVersion.incrementAndGet(), transactions));
+        }
+    }
+
+    /**
+     * Number of times this node has asked the leader to send all
+     * transactions again.
+     */
+    public long getResyncCount() {
+        return resyncCount.get();
+    }
+
+    private void heartbeat() {
+        try {
+            long now = System.currentTimeMillis();
+            lastSeenMillis.values().removeIf(seen -> now - seen > timeoutMillis);
+            boolean wasLeader = leader;
+            leader = now - startedMillis >= timeoutMillis
+                    && lastSeenMillis.keySet().stream().noneMatch(peer -> peer.compareTo(nodeId) < 0);
+            if (leader != wasLeader) {
+                logger.info("Node {} is {} leader", nodeId, leader ? "now" : "no longer");
+            }
+            transport.send(ClusterMessage.heartbeat(nodeId, publishedVersion.get()));
+        } catch (RuntimeException e) {
+            logger.warn("Failed to send heartbeat", e);
+        }
+    }
+
+    private void receive(ClusterMessage message) {
+        if (nodeId.equals(message.getNodeId())) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean newPeer = lastSeenMillis.put(message.getNodeId(), now) == null;
+        if (newPeer && leader) {
+            logger.info("Sending all transactions to new node {}", message.getNodeId());
+            publishAll();
+        }
+        Peer peer = peers.computeIfAbsent(message.getNodeId(), id -> new Peer(now));
+        switch (message.getType()) {
+            case HEARTBEAT:
+                peer.heartbeat(message.getVersion());
+                break;
+            case CHANGES:
+            case ALL:
+                peer.receive(message);
+                apply(message);
+                break;
+            case RESYNC:
+                // Requests of several nodes within a heartbeat are answered
+                // with one copy.
+                if (leader && now - publishedAllMillis >= heartbeatMillis) {
+                    logger.info("Sending all transactions to node {} that has missed changes", message.getNodeId());
+                    publishAll();
+                }
+                return;
+        }
+        if (!peer.synced && !leader && isLeader(message.getNodeId())
+                && now - peer.resyncRequestedMillis >= timeoutMillis) {
+            logger.info("Missed changes from {}, asking for all transactions", message.getNodeId());
+            peer.resyncRequestedMillis = now;
+            resyncCount.incrementAndGet();
+            transport.send(ClusterMessage.resync(nodeId, publishedVersion.get()));
+        }
+    }
+
+    /**
+     * Whether given node is the leader from this node's point of view.
+     */
+    private boolean isLeader(String peerId) {
+        return lastSeenMillis.keySet().stream().noneMatch(peer -> peer.compareTo(peerId) < 0)
+                && peerId.compareTo(nodeId) < 0;
+    }
+
+    private void apply(ClusterMessage message) {
+        List<Mutation> mutations = new ArrayList<>(message.getTransactions().size());
+        for (Transaction transaction : message.getTransactions()) {
+            mutations.add(Mutation.upsert(transaction));
+        }
+        BatchResult result = repository.applyBatch(mutations);
+        PushMetrics.CLUSTER_PROPAGATION.record(
+                TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - message.getSentMillis())));
+        changeListener.accept(result);
+    }
+
+    /**
+     * Batches received from another node.
+     */
+    private static class Peer {
+        /**
+         * Whether every batch since a complete copy of all transactions
+         * has been received.
+         */
+        private boolean synced;
+        private long resyncRequestedMillis;
+        /**
+         * Latest batch received completely.
+         */
+        private long completeVersion = -1;
+        private long version = -1;
+        private int nextPart;
+        private boolean intact;
+        /**
+         * Version shown by previous heartbeat, if it was newer than the
+         * latest complete batch.
+         */
+        private long behindVersion = -1;
+
+        /**
+         * @param seenMillis time node was first seen. Leader sends all
+         *                   transactions to a new node unasked, so there
+         *                   is no need to ask for them right away.
+         */
+        Peer(long seenMillis) {
+            resyncRequestedMillis = seenMillis;
+        }
+
+        void receive(ClusterMessage message) {
+            boolean inOrder = message.getPart() == 0
+                    ? message.getType() == ClusterMessage.Type.ALL || message.getVersion() == completeVersion + 1
+                    : message.getVersion() == version && message.getPart() == nextPart;
+            intact = message.getPart() == 0 ? inOrder : intact && inOrder;
+            version = message.getVersion();
+            nextPart = message.getPart() + 1;
+            if (!intact) {
+                synced = false;
+            }
+            if (message.isLastPart()) {
+                completeVersion = version;
+                if (intact && message.getType() == ClusterMessage.Type.ALL) {
+                    synced = true;
+                }
+            }
+        }
+
+        void heartbeat(long latestVersion) {
+            if (latestVersion <= completeVersion) {
+                behindVersion = -1;
+                return;
+            }
+            if (behindVersion >= 0 && completeVersion < behindVersion) {
+                // Batch was sent at least a heartbeat ago and has not
+                // arrived.
+                synced = false;
+            }
+            behindVersion = latestVersion;
+        }
+    }
+}
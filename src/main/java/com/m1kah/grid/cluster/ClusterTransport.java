@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.cluster;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Carries messages between nodes of a cluster. Delivery is best effort
+ * and a node does not receive its own messages.
+ */
+public interface ClusterTransport {
+    /**
+     * Starts receiving messages from other nodes.
+     */
+    void start(Consumer<ClusterMessage> receiver) throws IOException;
+
+    /**
+     * Sends message to all other nodes without waiting for delivery.
+     */
+    void send(ClusterMessage message);
+
+    void close();
+
+    /**
+     * Creates transport configured with system properties, or returns
+     * null if clustering is not configured:
+     * <ul>
+     *     <li>grid.cluster.port, UDP port this node listens to</li>
+     *     <li>grid.cluster.peers, comma separated host:port of other nodes</li>
+     * </ul>
+     */
+    static ClusterTransport fromSystemProperties() {
+        String peers = System.getProperty("grid.cluster.peers");
+        if (peers == null) {
+            return null;
+        }
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            String[] hostAndPort = peer.trim().split(":");
+            addresses.add(new InetSocketAddress(hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+        }
+        return new UdpClusterTransport(Integer.getInteger("grid.cluster.port", 7400), addresses);
+    }
+}
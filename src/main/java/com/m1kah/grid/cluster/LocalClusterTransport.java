@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.cluster;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Transport between nodes running in the same JVM. Each node receives
+ * messages in order on its own thread, like it would from a network.
+ */
+public class LocalClusterTransport implements ClusterTransport {
+    private final Set<LocalClusterTransport> network;
+    private final ExecutorService delivery = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "grid-cluster-local");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Consumer<ClusterMessage> receiver;
+
+    private LocalClusterTransport(Set<LocalClusterTransport> network) {
+        this.network = network;
+    }
+
+    /**
+     * Creates a new network that nodes can join with
+     * {@link #join(Set)}.
+     */
+    public static Set<LocalClusterTransport> newNetwork() {
+        return ConcurrentHashMap.newKeySet();
+    }
+
+    public static LocalClusterTransport join(Set<LocalClusterTransport> network) {
+        return new LocalClusterTransport(network);
+    }
+
+    @Override
+    public void start(Consumer<ClusterMessage> receiver) {
+        this.receiver = receiver;
+        network.add(this);
+    }
+
+    @Override
+    public void send(ClusterMessage message) {
+        for (LocalClusterTransport node : network) {
+            if (node != this) {
+                node.deliver(message);
+            }
+        }
+    }
+
+    private void deliver(ClusterMessage message) {
+        try {
+            delivery.execute(() -> receiver.accept(message));
+        } catch (RejectedExecutionException e) {
+            // Node has left the network.
+        }
+    }
+
+    @Override
+    public void close() {
+        network.remove(this);
+        delivery.shutdown();
+    }
+}
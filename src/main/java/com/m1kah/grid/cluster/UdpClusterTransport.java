@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.cluster;
+
+import com.m1kah.grid.data.ChangeDecoder;
+import com.m1kah.grid.data.ChangeEncoder;
+import com.m1kah.grid.data.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Sends messages as UDP datagrams to a fixed list of peers. Works over
+ * loopback for running several nodes on one host.
+ *
+ * Transactions are encoded with {@link ChangeEncoder}. Large batches are
+ * split into datagrams that each carry complete transactions, so a lost
+ * datagram only loses the transactions in it. Datagrams of a batch are
+ * numbered so that the receiver can tell one is missing.
+ */
+public class UdpClusterTransport implements ClusterTransport {
+    private static final Logger logger = LoggerFactory.getLogger(UdpClusterTransport.class);
+    private static final int MAX_DATAGRAM_BYTES = Integer.getInteger("grid.cluster.maxDatagramBytes", 60000);
+    /**
+     * Room for a copy of all transactions arriving at once, so that the
+     * copy sent to a node that missed changes is not lost in turn.
+     */
+    private static final int RECEIVE_BUFFER_BYTES = Integer.getInteger("grid.cluster.receiveBufferBytes", 8 * 1024 * 1024);
+    private final int port;
+    private final List<InetSocketAddress> peers;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(MAX_DATAGRAM_BYTES);
+    private final ChangeEncoder encoder = new ChangeEncoder();
+    // Only used by the receiver thread.
+    private final ChangeDecoder decoder = new ChangeDecoder();
+    private DatagramChannel channel;
+    private Thread receiverThread;
+
+    public UdpClusterTransport(int port, List<InetSocketAddress> peers) {
+        this.port = port;
+        this.peers = new ArrayList<>(peers);
+    }
+
+    @Override
+    public void start(Consumer<ClusterMessage> receiver) throws IOException {
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_BYTES);
+        channel.bind(new InetSocketAddress(port));
+        receiverThread = new Thread(() -> receive(receiver), "grid-cluster-udp");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+        logger.info("Listening to cluster messages on port {}", port);
+    }
+
+    private void receive(Consumer<ClusterMessage> receiver) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_BYTES);
+        while (channel.isOpen()) {
+            try {
+                buffer.clear();
+                SocketAddress sender = channel.receive(buffer);
+                if (sender == null) {
+                    continue;
+                }
+                buffer.flip();
+                receiver.accept(decode(buffer));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to receive cluster message", e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void send(ClusterMessage message) {
+        List<Transaction> transactions = message.getTransactions();
+        int next = 0;
+        int part = 0;
+        do {
+            sendBuffer.clear();
+            writeHeader(message);
+            sendBuffer.putShort((short) part);
+            int lastPartPosition = sendBuffer.position();
+            sendBuffer.put((byte) 0);
+            // Each datagram is decoded on its own.
+            encoder.reset();
+            encoder.begin(sendBuffer, message.getVersion(), message.getSentMillis());
+            while (next < transactions.size() && encoder.add(message.getVersion(), transactions.get(next))) {
+                next++;
+            }
+            if (encoder.finish() == 0 && next < transactions.size()) {
+                logger.warn("Transaction {} does not fit in a datagram", transactions.get(next).getName());
+                next++;
+                continue;
+            }
+            sendBuffer.put(lastPartPosition, (byte) (next < transactions.size() ? 0 : 1));
+            part++;
+            sendBuffer.flip();
+            for (InetSocketAddress peer : peers) {
+                try {
+                    channel.send(sendBuffer.duplicate(), peer);
+                } catch (IOException e) {
+                    logger.debug("Failed to send cluster message to {}", peer, e);
+                }
+            }
+        } while (next < transactions.size());
+    }
+
+    private void writeHeader(ClusterMessage message) {
+        sendBuffer.put((byte) message.getType().ordinal());
+        byte[] nodeId = message.getNodeId().getBytes(StandardCharsets.UTF_8);
+        sendBuffer.putShort((short) nodeId.length);
+        sendBuffer.put(nodeId);
+        sendBuffer.putLong(message.getSentMillis());
+        sendBuffer.putLong(message.getVersion());
+    }
+
+    private ClusterMessage decode(ByteBuffer buffer) {
+        ClusterMessage.Type type = ClusterMessage.Type.values()[buffer.get()];
+        byte[] nodeId = new byte[buffer.getShort() & 0xffff];
+        buffer.get(nodeId);
+        long sentMillis = buffer.getLong();
+        long version = buffer.getLong();
+        int part = buffer.getShort() & 0xffff;
+        boolean lastPart = buffer.get() != 0;
+        decoder.reset();
+        List<Transaction> transactions = new ArrayList<>(decoder.begin(buffer));
+        while (decoder.next()) {
+            transactions.add(decoder.toTransaction(null));
+        }
+        return new ClusterMessage(
+                type, new String(nodeId, StandardCharsets.UTF_8), sentMillis, version, transactions, part, lastPart);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close cluster channel", e);
+        }
+    }
+}
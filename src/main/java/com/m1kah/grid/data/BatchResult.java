@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * What a batch applied to the repository changed.
+ */
+public final class BatchResult {
+    private final BitSet ids;
+    private final BitSet insertedIds;
+    private final Set<TransactionField> changedFields;
+    private final TransactionAggregates aggregates;
+    private final long version;
+
+    /**
+     * @param ids ids of inserted and changed transactions
+     * @param insertedIds ids of inserted transactions
+     * @param aggregates totals right after the batch
+     */
+    public BatchResult(BitSet ids,
+                       BitSet insertedIds,
+                       Set<TransactionField> changedFields,
+                       TransactionAggregates aggregates,
+                       long version) {
+        this.ids = ids;
+        this.insertedIds = insertedIds;
+        this.changedFields = Collections.unmodifiableSet(changedFields);
+        this.aggregates = aggregates;
+        this.version = version;
+    }
+
+    @Override
+    public String toString() {
+        return ids.cardinality() + " changed, " + insertedIds.cardinality() + " inserted, version " + version;
+    }
+
+    /**
+     * Ids of inserted and changed transactions. Must not be modified.
+     */
+    public BitSet getIds() {
+        return ids;
+    }
+
+    /**
+     * Fields changed in any of the transactions.
+     */
+    public Set<TransactionField> getChangedFields() {
+        return changedFields;
+    }
+
+    /**
+     * Ids of transactions inserted by the batch. Must not be modified.
+     */
+    public BitSet getInsertedIds() {
+        return insertedIds;
+    }
+
+    public int getInsertedCount() {
+        return insertedIds.cardinality();
+    }
+
+    /**
+     * Totals of all transactions right after the batch, taken under the
+     * same lock as the batch.
+     */
+    public TransactionAggregates getAggregates() {
+        return aggregates;
+    }
+
+    /**
+     * Whether the batch changed the totals.
+     */
+    public boolean changesAggregates() {
+        return !insertedIds.isEmpty() || changedFields.contains(TransactionField.AMOUNT);
+    }
+
+    /**
+     * Repository version after the batch. Readers see either none or all
+     * of the changes up to this version.
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads change batches written by {@link ChangeEncoder}. Records are
+ * read one at a time into this decoder, so reading does not allocate
+ * except for names seen first time.
+ *
+ * <pre>
+ * decoder.begin(buffer);
+ * while (decoder.next()) {
+ *     String name = decoder.getName();
+ *     ...
+ * }
+ * </pre>
+ *
+ * Not thread safe.
+ */
+public class ChangeDecoder {
+    private String[] names = new String[16];
+    private char[] chars = new char[64];
+    private ByteBuffer buffer;
+    private int remaining;
+    private int mask;
+    private int id;
+    private long version;
+    private long amountMinor;
+    private long updatedMillis;
+
+    /**
+     * Forgets interned names. Must match resets of the encoder.
+     */
+    public void reset() {
+        Arrays.fill(names, null);
+    }
+
+    /**
+     * Starts reading a batch at buffer's position.
+     *
+     * @return number of records in the batch
+     */
+    public int begin(ByteBuffer source) {
+        byte formatVersion = source.get();
+        if (formatVersion != WireFormat.FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown change batch format " + formatVersion);
+        }
+        buffer = source;
+        remaining = source.getInt();
+        version = WireFormat.getVarLong(source);
+        updatedMillis = WireFormat.getVarLong(source);
+        return remaining;
+    }
+
+    /**
+     * Moves to next record.
+     *
+     * @return false if there are no more records in the batch
+     */
+    public boolean next() {
+        if (remaining == 0) {
+            return false;
+        }
+        remaining--;
+        mask = buffer.get() & 0xff;
+        id = (int) WireFormat.getVarLong(buffer);
+        if ((mask & WireFormat.DEFINE) != 0) {
+            if (id >= names.length) {
+                names = Arrays.copyOf(names, Math.max(names.length * 2, id + 1));
+            }
+            names[id] = readName();
+        } else if (id >= names.length || names[id] == null) {
+            throw new IllegalStateException("Unknown id " + id);
+        }
+        version += WireFormat.getZigZag(buffer);
+        if ((mask & WireFormat.AMOUNT) != 0) {
+            amountMinor = WireFormat.getZigZag(buffer);
+        }
+        if ((mask & WireFormat.UPDATED) != 0) {
+            updatedMillis += WireFormat.getZigZag(buffer);
+        }
+        return true;
+    }
+
+    private String readName() {
+        int length = (int) WireFormat.getVarLong(buffer);
+        if (chars.length < length) {
+            chars = new char[Math.max(chars.length * 2, length)];
+        }
+        int end = buffer.position() + length;
+        int count = 0;
+        while (buffer.position() < end) {
+            int b = buffer.get() & 0xff;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b < 0xe0) {
+                chars[count++] = (char) ((b & 0x1f) << 6 | buffer.get() & 0x3f);
+            } else {
+                chars[count++] = (char) ((b & 0x0f) << 12 | (buffer.get() & 0x3f) << 6 | buffer.get() & 0x3f);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return names[id];
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isInsert() {
+        return (mask & WireFormat.INSERT) != 0;
+    }
+
+    public boolean hasField(TransactionField field) {
+        return (mask & 1 << field.ordinal()) != 0;
+    }
+
+    /**
+     * Amount of the record, or of the latest earlier record in the batch
+     * that had one.
+     */
+    public long getAmountMinor() {
+        return amountMinor;
+    }
+
+    /**
+     * Update time of the record, or of the latest earlier record in the
+     * batch that had one.
+     */
+    public long getUpdatedMillis() {
+        return updatedMillis;
+    }
+
+    /**
+     * Creates transaction from the record. Fields missing from the record
+     * are taken from previous snapshot, which may be null for records
+     * that have all fields.
+     */
+    public Transaction toTransaction(Transaction previous) {
+        return new Transaction(
+                getName(),
+                hasField(TransactionField.AMOUNT) ? amountMinor : previous.getAmountMinor(),
+                hasField(TransactionField.UPDATED) ? updatedMillis : previous.getUpdatedMillis());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes change batches in {@link WireFormat} to a caller's buffer.
+ * Keeps interned names between batches, so a stream of batches must be
+ * decoded in order by one {@link ChangeDecoder}. Call {@link #reset()}
+ * to make the next batch self-contained.
+ *
+ * Records do not allocate, except when a name is seen first time. Not
+ * thread safe.
+ */
+public class ChangeEncoder {
+    private static final int MAX_FIXED_RECORD_BYTES = 1 + 5 + 3 * 10;
+    private static final TransactionField[] FIELDS = TransactionField.values();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private ByteBuffer buffer;
+    private int start;
+    private int count;
+    private long previousVersion;
+    private long previousMillis;
+
+    /**
+     * Forgets interned names.
+     */
+    public void reset() {
+        ids.clear();
+    }
+
+    /**
+     * Starts a batch at buffer's position.
+     */
+    public void begin(ByteBuffer target, long baseVersion, long baseMillis) {
+        buffer = target;
+        start = target.position();
+        count = 0;
+        previousVersion = baseVersion;
+        previousMillis = baseMillis;
+        target.put(WireFormat.FORMAT_VERSION);
+        target.putInt(0);
+        WireFormat.putVarLong(target, baseVersion);
+        WireFormat.putVarLong(target, baseMillis);
+    }
+
+    /**
+     * Adds a change with the fields it changed.
+     *
+     * @return false if record does not fit in the buffer, in which case
+     * nothing is written
+     */
+    public boolean add(TransactionChange change) {
+        int mask = 0;
+        Set<TransactionField> fields = change.getChangedFields();
+        for (TransactionField field : FIELDS) {
+            if (fields.contains(field)) {
+                mask |= 1 << field.ordinal();
+            }
+        }
+        return add(change.getVersion(), change.getTransaction(), change.isInsert() ? mask | WireFormat.INSERT : mask);
+    }
+
+    /**
+     * Adds all fields of a transaction.
+     *
+     * @return false if record does not fit in the buffer, in which case
+     * nothing is written
+     */
+    public boolean add(long version, Transaction transaction) {
+        return add(version, transaction, WireFormat.AMOUNT | WireFormat.UPDATED);
+    }
+
+    private boolean add(long version, Transaction transaction, int fieldMask) {
+        String name = transaction.getName();
+        Integer id = ids.get(name);
+        int mask = fieldMask;
+        int needed = MAX_FIXED_RECORD_BYTES;
+        if (id == null) {
+            mask |= WireFormat.DEFINE;
+            needed += 5 + 3 * name.length();
+        }
+        if (buffer.remaining() < needed) {
+            return false;
+        }
+        if (id == null) {
+            id = ids.size();
+            ids.put(name, id);
+        }
+        buffer.put((byte) mask);
+        WireFormat.putVarLong(buffer, id);
+        if ((mask & WireFormat.DEFINE) != 0) {
+            putName(name);
+        }
+        WireFormat.putZigZag(buffer, version - previousVersion);
+        previousVersion = version;
+        if ((mask & WireFormat.AMOUNT) != 0) {
+            WireFormat.putZigZag(buffer, transaction.getAmountMinor());
+        }
+        if ((mask & WireFormat.UPDATED) != 0) {
+            WireFormat.putZigZag(buffer, transaction.getUpdatedMillis() - previousMillis);
+            previousMillis = transaction.getUpdatedMillis();
+        }
+        count++;
+        return true;
+    }
+
+    /**
+     * Writes each char as one to three bytes like UTF-8 without encoding
+     * to a temporary array. Length is patched in afterwards, so it always
+     * takes 5 bytes.
+     */
+    private void putName(String name) {
+        int lengthPosition = buffer.position();
+        buffer.position(lengthPosition + 5);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            } else {
+                buffer.put((byte) (0xe0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            }
+        }
+        int length = buffer.position() - lengthPosition - 5;
+        for (int i = 0; i < 5; i++) {
+            buffer.put(lengthPosition + i, (byte) (i < 4 ? (length >>> 7 * i) & 0x7f | 0x80 : length >>> 28));
+        }
+    }
+
+    /**
+     * Ends the batch.
+     *
+     * @return number of records in the batch
+     */
+    public int finish() {
+        buffer.putInt(start + WireFormat.COUNT_OFFSET, count);
+        return count;
+    }
+}
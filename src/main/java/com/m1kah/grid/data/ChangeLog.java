@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Latest changes made to the repository.
+ *
+ * Each change gets the next version number. The log keeps a fixed number
+ * of latest changes in a ring buffer so that a UI that missed
+ * notifications can catch up by reading the changes after the version it
+ * has last seen. A UI that is further behind than the log reaches has to
+ * fall back to the changed ids it has been notified about.
+ */
+class ChangeLog {
+    private final TransactionChange[] changes;
+    private long version;
+
+    ChangeLog(int capacity) {
+        this.changes = new TransactionChange[capacity];
+    }
+
+    synchronized TransactionChange append(
+            int id, Transaction transaction, boolean insert, Set<TransactionField> changedFields) {
+        TransactionChange change = new TransactionChange(++version, id, transaction, insert, changedFields);
+        changes[slot(version)] = change;
+        return change;
+    }
+
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * @return changes after given version in order, or empty if some of
+     * them are no longer in the log
+     */
+    synchronized Optional<List<TransactionChange>> changesSince(long sinceVersion) {
+        if (sinceVersion >= version) {
+            return Optional.of(Collections.emptyList());
+        }
+        long oldest = Math.max(1, version - changes.length + 1);
+        if (sinceVersion + 1 < oldest) {
+            return Optional.empty();
+        }
+        List<TransactionChange> result = new ArrayList<>((int) (version - sinceVersion));
+        for (long v = sinceVersion + 1; v <= version; v++) {
+            result.add(changes[slot(v)]);
+        }
+        return Optional.of(result);
+    }
+
+    private int slot(long version) {
+        return (int) ((version - 1) % changes.length);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+/**
+ * One change in a batch given to {@link TransactionRepository#applyBatch}.
+ */
+public final class Mutation {
+    private final Transaction transaction;
+    private final boolean insertIfAbsent;
+    private final boolean updateIfPresent;
+
+    private Mutation(Transaction transaction, boolean insertIfAbsent, boolean updateIfPresent) {
+        this.transaction = transaction;
+        this.insertIfAbsent = insertIfAbsent;
+        this.updateIfPresent = updateIfPresent;
+    }
+
+    /**
+     * Inserts transaction unless there already is one with the same name.
+     */
+    public static Mutation insert(Transaction transaction) {
+        return new Mutation(transaction, true, false);
+    }
+
+    /**
+     * Replaces snapshot of an existing transaction. Ignored if there is no
+     * transaction with the same name.
+     */
+    public static Mutation update(Transaction transaction) {
+        return new Mutation(transaction, false, true);
+    }
+
+    /**
+     * Inserts transaction or replaces the existing one with the same name.
+     */
+    public static Mutation upsert(Transaction transaction) {
+        return new Mutation(transaction, true, true);
+    }
+
+    @Override
+    public String toString() {
+        return (insertIfAbsent ? updateIfPresent ? "upsert " : "insert " : "update ") + transaction;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    boolean isInsertIfAbsent() {
+        return insertIfAbsent;
+    }
+
+    boolean isUpdateIfPresent() {
+        return updateIfPresent;
+    }
+}
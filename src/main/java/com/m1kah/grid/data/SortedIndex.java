@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Transaction names ordered by one field.
+ *
+ * Names are kept in a treap where each node knows the size of its
+ * subtree. Moving a transaction after its sort key has changed and
+ * finding the transactions at given positions both take O(log n), so
+ * grids can page through sorted data without sorting it.
+ *
+ * Equal keys are ordered by name.
+ */
+class SortedIndex<K extends Comparable<? super K>> {
+    private final Function<Transaction, K> keyOf;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Random random = new Random();
+    private Node<K> root;
+
+    SortedIndex(Function<Transaction, K> keyOf) {
+        this.keyOf = keyOf;
+    }
+
+    void add(Transaction transaction) {
+        K key = keyOf.apply(transaction);
+        lock.writeLock().lock();
+        try {
+            root = insert(root, new Node<>(key, transaction.getName(), random.nextInt()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds many transactions at once. Sorts all transactions and builds
+     * the treap again in linear time, which is much faster than adding
+     * a large number of transactions one by one.
+     */
+    void addAll(Collection<Transaction> transactions) {
+        List<Node<K>> nodes = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            nodes.add(new Node<>(keyOf.apply(transaction), transaction.getName(), random.nextInt()));
+        }
+        lock.writeLock().lock();
+        try {
+            inOrder(root, nodes);
+            nodes.sort((a, b) -> compare(a.key, a.name, b));
+            root = build(nodes);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves transaction from the position of previous snapshot to the
+     * position of current one.
+     */
+    void move(Transaction previous, Transaction current) {
+        K oldKey = keyOf.apply(previous);
+        K key = keyOf.apply(current);
+        if (oldKey.compareTo(key) == 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            root = remove(root, oldKey, previous.getName());
+            root = insert(root, new Node<>(key, current.getName(), random.nextInt()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns names of transactions from given position in ascending or
+     * descending order.
+     */
+    List<String> page(int offset, int limit, boolean ascending) {
+        lock.readLock().lock();
+        try {
+            int size = size(root);
+            int count = (int) Math.max(0, Math.min((long) limit, (long) size - offset));
+            List<String> names = new ArrayList<>(count);
+            if (ascending) {
+                collect(root, offset, offset + count, names);
+            } else {
+                collect(root, size - offset - count, size - offset, names);
+                Collections.reverse(names);
+            }
+            return names;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size(root);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns smallest key, or largest if not ascending. Takes O(log n).
+     *
+     * @return key or null if index is empty
+     */
+    K firstKey(boolean ascending) {
+        lock.readLock().lock();
+        try {
+            Node<K> node = root;
+            if (node == null) {
+                return null;
+            }
+            Node<K> next = ascending ? node.left : node.right;
+            while (next != null) {
+                node = next;
+                next = ascending ? node.left : node.right;
+            }
+            return node.key;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int compare(K key, String name, Node<K> node) {
+        int result = key.compareTo(node.key);
+        return result != 0 ? result : name.compareTo(node.name);
+    }
+
+    private Node<K> insert(Node<K> node, Node<K> added) {
+        if (node == null) {
+            return added;
+        }
+        if (added.priority > node.priority) {
+            split(node, added);
+            return update(added);
+        }
+        if (compare(added.key, added.name, node) < 0) {
+            node.left = insert(node.left, added);
+        } else {
+            node.right = insert(node.right, added);
+        }
+        return update(node);
+    }
+
+    /**
+     * Splits subtree to nodes before and after pivot, which become the
+     * children of pivot.
+     */
+    private void split(Node<K> node, Node<K> pivot) {
+        if (node == null) {
+            pivot.left = null;
+            pivot.right = null;
+        } else if (compare(pivot.key, pivot.name, node) < 0) {
+            split(node.left, pivot);
+            node.left = pivot.right;
+            pivot.right = update(node);
+        } else {
+            split(node.right, pivot);
+            node.right = pivot.left;
+            pivot.left = update(node);
+        }
+    }
+
+    private Node<K> remove(Node<K> node, K key, String name) {
+        if (node == null) {
+            return null;
+        }
+        int result = compare(key, name, node);
+        if (result == 0) {
+            return merge(node.left, node.right);
+        }
+        if (result < 0) {
+            node.left = remove(node.left, key, name);
+        } else {
+            node.right = remove(node.right, key, name);
+        }
+        return update(node);
+    }
+
+    private Node<K> merge(Node<K> left, Node<K> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return update(left);
+        }
+        right.left = merge(left, right.left);
+        return update(right);
+    }
+
+    /**
+     * Adds names at positions from (inclusive) to (exclusive) of subtree.
+     */
+    private void collect(Node<K> node, int from, int to, List<String> names) {
+        if (node == null || from >= to) {
+            return;
+        }
+        int leftSize = size(node.left);
+        if (from < leftSize) {
+            collect(node.left, from, Math.min(to, leftSize), names);
+        }
+        if (from <= leftSize && leftSize < to) {
+            names.add(node.name);
+        }
+        if (to > leftSize + 1) {
+            collect(node.right, Math.max(0, from - leftSize - 1), to - leftSize - 1, names);
+        }
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static <K> void inOrder(Node<K> node, List<Node<K>> nodes) {
+        if (node == null) {
+            return;
+        }
+        inOrder(node.left, nodes);
+        nodes.add(node);
+        inOrder(node.right, nodes);
+    }
+
+    /**
+     * Builds treap from nodes in key order. Keeps the right spine of the
+     * tree on a stack. Nodes popped off the spine are complete.
+     */
+    private static <K> Node<K> build(List<Node<K>> sorted) {
+        Deque<Node<K>> spine = new ArrayDeque<>();
+        for (Node<K> node : sorted) {
+            Node<K> last = null;
+            while (!spine.isEmpty() && spine.peek().priority < node.priority) {
+                last = update(spine.pop());
+            }
+            node.left = last;
+            node.right = null;
+            if (!spine.isEmpty()) {
+                spine.peek().right = node;
+            }
+            spine.push(node);
+        }
+        Node<K> root = null;
+        while (!spine.isEmpty()) {
+            root = update(spine.pop());
+        }
+        return root;
+    }
+
+    private static <K> Node<K> update(Node<K> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+
+    private static class Node<K> {
+        private final K key;
+        private final String name;
+        private final int priority;
+        private int size = 1;
+        private Node<K> left;
+        private Node<K> right;
+
+        Node(K key, String name, int priority) {
+            this.key = key;
+            this.name = name;
+            this.priority = priority;
+        }
+    }
+}
@@ -25,51 +25,88 @@ package com.m1kah.grid.data;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.util.Locale;
 
-public class Transaction implements Serializable {
-    private String name;
-    private BigDecimal amount = BigDecimal.ZERO;
-    private Instant updated = Instant.now();
+/**
+ * Immutable snapshot of a transaction.
+ *
+ * Updates create a new snapshot that replaces the previous one in the
+ * repository, so readers on UI threads never see a half updated
+ * transaction. Amount is kept as a fixed-point number of minor units and
+ * update time as epoch milliseconds to keep updates cheap.
+ *
+ * Transactions are equal when they have the same name. Grid uses this
+ * to match a new snapshot with the row showing the previous one.
+ */
+public final class Transaction implements Serializable {
+    /**
+     * Number of decimals in amount.
+     */
+    public static final int AMOUNT_SCALE = 2;
+    public static final long MINOR_UNITS_PER_UNIT = 100;
+    private final String name;
+    private final long amountMinor;
+    private final long updatedMillis;
+
+    public Transaction(String name, long amountMinor, long updatedMillis) {
+        this.name = name;
+        this.amountMinor = amountMinor;
+        this.updatedMillis = updatedMillis;
+    }
+
+    /**
+     * Creates transaction with zero amount updated now.
+     */
+    public static Transaction create(String name) {
+        return new Transaction(name, 0, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates snapshot with new amount and update time.
+     */
+    public Transaction withAmount(long amountMinor, long updatedMillis) {
+        return new Transaction(name, amountMinor, updatedMillis);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof Transaction && name.equals(((Transaction) o).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
 
     @Override
     public String toString() {
-        return name + " " + amount;
+        return name + " " + getAmount();
     }
 
     public String getName() {
         return name;
     }
 
-    public void setName(String name) {
-        this.name = name;
-    }
-
     public BigDecimal getAmount() {
-        return amount;
+        return BigDecimal.valueOf(amountMinor, AMOUNT_SCALE);
     }
 
-    public void setAmount(BigDecimal amount) {
-        this.amount = amount;
+    public long getAmountMinor() {
+        return amountMinor;
     }
 
     public Instant getUpdated() {
-        return updated;
+        return Instant.ofEpochMilli(updatedMillis);
     }
 
-    public void setUpdated(Instant updated) {
-        this.updated = updated;
+    public long getUpdatedMillis() {
+        return updatedMillis;
     }
 
     public String formattedUpdateTime() {
-        if (updated == null) {
-            return "";
-        }
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm:ss.SSS")
-                .withZone(ZoneId.systemDefault())
-                .withLocale(Locale.ENGLISH);
-        return formatter.format(updated);
+        return formattedUpdateTime(UpdateTimeFormat.defaultFormat());
+    }
+
+    public String formattedUpdateTime(UpdateTimeFormat format) {
+        return format.format(updatedMillis);
     }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * Running totals of all transactions at one point in time.
+ *
+ * The repository replaces its aggregates with a new snapshot on every
+ * insert and every amount change, under the same lock as the change
+ * itself, so readers always see totals of one consistent set of
+ * transactions without scanning them. Each snapshot carries the version
+ * of the latest change it includes, so of two snapshots the newer one can
+ * be told apart.
+ */
+public final class TransactionAggregates implements Serializable {
+    static final TransactionAggregates EMPTY = new TransactionAggregates(0, 0, 0, 0, 0);
+    private final int count;
+    private final long sumMinor;
+    private final long minMinor;
+    private final long maxMinor;
+    private final long version;
+
+    TransactionAggregates(int count, long sumMinor, long minMinor, long maxMinor, long version) {
+        this.count = count;
+        this.sumMinor = sumMinor;
+        this.minMinor = minMinor;
+        this.maxMinor = maxMinor;
+        this.version = version;
+    }
+
+    @Override
+    public String toString() {
+        return "count " + count + ", sum " + getSum() + ", min " + getMin() + ", max " + getMax();
+    }
+
+    /**
+     * Repository version of the latest change included in these totals.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public BigDecimal getSum() {
+        return BigDecimal.valueOf(sumMinor, Transaction.AMOUNT_SCALE);
+    }
+
+    public long getSumMinor() {
+        return sumMinor;
+    }
+
+    /**
+     * Smallest amount, zero if there are no transactions.
+     */
+    public BigDecimal getMin() {
+        return BigDecimal.valueOf(minMinor, Transaction.AMOUNT_SCALE);
+    }
+
+    /**
+     * Largest amount, zero if there are no transactions.
+     */
+    public BigDecimal getMax() {
+        return BigDecimal.valueOf(maxMinor, Transaction.AMOUNT_SCALE);
+    }
+}
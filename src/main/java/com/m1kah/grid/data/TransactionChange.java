@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * One change made to the repository: which fields of which transaction
+ * changed and the snapshot holding their new values.
+ */
+public class TransactionChange implements Serializable {
+    private final long version;
+    private final int id;
+    private final Transaction transaction;
+    private final boolean insert;
+    private final Set<TransactionField> changedFields;
+
+    TransactionChange(long version, int id, Transaction transaction, boolean insert, Set<TransactionField> changedFields) {
+        this.version = version;
+        this.id = id;
+        this.transaction = transaction;
+        this.insert = insert;
+        this.changedFields = Collections.unmodifiableSet(changedFields);
+    }
+
+    @Override
+    public String toString() {
+        return version + " " + transaction.getName() + " " + changedFields;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Id of the transaction in the repository.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return transaction.getName();
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    public boolean isInsert() {
+        return insert;
+    }
+
+    public Set<TransactionField> getChangedFields() {
+        return changedFields;
+    }
+}
@@ -22,33 +22,50 @@
 
 package com.m1kah.grid.data;
 
-import java.math.BigDecimal;
-import java.time.Instant;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TransactionGenerator {
-    private static int newNameIndex;
+    private static final AtomicInteger newNameIndex = new AtomicInteger();
     private static String[] PRECIOUS_STONES = {
             "Alexandrite", "Aquamarine", "Citrine",
             "Fancy Diamonds", "Garnet", "Lapis Lazuli", "Moonstone",
             "Morganite", "Paraiba", "Pearls", "Peridot", "Rubellite",
             "Spinel", "Tanzanite", "Tourmaline", "Turquoise" };
 
-    public static Transaction create() {
-        Transaction transaction = new Transaction();
-        transaction.setName(nextNewName());
-        transaction.setUpdated(Instant.now());
-        transaction.setAmount(BigDecimal.ZERO);
-        if (TransactionRepository.get().find(transaction.getName()) == null) {
-            TransactionRepository.get().insert(transaction);
-        }
+    /**
+     * Creates next new transaction and inserts it unless the repository
+     * already has one with the same name.
+     *
+     * @return transaction or empty if there are no more names
+     */
+    public static Optional<Transaction> create() {
+        Optional<Transaction> transaction = next();
+        transaction.ifPresent(TransactionRepository.get()::insert);
         return transaction;
     }
 
-    public static boolean hasMore() {
-        return newNameIndex + 1 < PRECIOUS_STONES.length;
+    /**
+     * Creates next new transaction without inserting it. Each name is
+     * given out once, however many threads ask at the same time.
+     *
+     * @return transaction or empty if there are no more names
+     */
+    public static Optional<Transaction> next() {
+        int index = newNameIndex.getAndUpdate(i -> Math.min(i + 1, PRECIOUS_STONES.length));
+        if (index >= PRECIOUS_STONES.length) {
+            return Optional.empty();
+        }
+        return Optional.of(Transaction.create(PRECIOUS_STONES[index]));
     }
 
-    private static String nextNewName() {
-        return PRECIOUS_STONES[newNameIndex++];
+    /**
+     * Creates snapshot of transaction with a random amount added.
+     */
+    public static Transaction update(Transaction transaction, Random random) {
+        long newAmount = transaction.getAmountMinor()
+                + Math.round(random.nextDouble() * 100) * Transaction.MINOR_UNITS_PER_UNIT;
+        return transaction.withAmount(newAmount, System.currentTimeMillis());
     }
 }
@@ -23,55 +23,430 @@
 package com.m1kah.grid.data;
 
 import java.io.Serializable;
-import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class TransactionRepository implements Serializable {
     private static final TransactionRepository INSTANCE = new TransactionRepository();
     public static TransactionRepository get() {
         return INSTANCE;
     }
-    private List<Transaction> transactions = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * Latest snapshot of each transaction by name. Updates replace the
+     * snapshot in one step. Public reads go through {@link #epoch} so that
+     * they never see a snapshot of a batch that is still being applied.
+     */
+    private final ConcurrentMap<String, Transaction> index = new ConcurrentHashMap<>();
+    /**
+     * Transaction names in insertion order. Only appended to, under the
+     * write lock. Readers take {@link #size} first and then the array so
+     * they always see a fully written prefix.
+     */
+    private volatile String[] rows = new String[16];
+    private volatile int size;
+    /**
+     * Id of each transaction, which is its position in {@link #rows}.
+     * Ids are dense and never change, so sets of transactions can be
+     * passed around as bitsets.
+     */
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    /**
+     * Transactions sorted by each field. Kept up to date on insert and
+     * update so that sorted pages do not need sorting.
+     */
+    private final Map<TransactionField, SortedIndex<?>> sortedIndexes = new EnumMap<>(TransactionField.class);
+    private final SortedIndex<Long> amountIndex = new SortedIndex<>(Transaction::getAmountMinor);
+    /**
+     * Totals of all transactions. Replaced under the write lock whenever a
+     * change affects them.
+     */
+    private volatile TransactionAggregates aggregates = TransactionAggregates.EMPTY;
+    private final ChangeLog changeLog = new ChangeLog(Integer.getInteger("grid.changeLog.capacity", 10000));
+    /**
+     * Held for writing while a batch is applied and for reading while rows
+     * are read, so that readers see either none or all of a batch. Batches
+     * are applied one at a time because the write lock is exclusive.
+     */
+    private final ReadWriteLock epoch = new ReentrantReadWriteLock();
 
     public TransactionRepository() {
-        transactions.add(createTransaction("Opal"));
-        transactions.add(createTransaction("Ruby"));
-        transactions.add(createTransaction("Sapphire"));
-        transactions.add(createTransaction("Topaz"));
-        transactions.add(createTransaction("Emerald"));
-        transactions.add(createTransaction("Diamond"));
-        transactions.add(createTransaction("Zircon"));
-        transactions.add(createTransaction("Amethyst"));
+        sortedIndexes.put(TransactionField.NAME, new SortedIndex<>(Transaction::getName));
+        sortedIndexes.put(TransactionField.AMOUNT, amountIndex);
+        sortedIndexes.put(TransactionField.UPDATED, new SortedIndex<>(Transaction::getUpdatedMillis));
+        insert(Transaction.create("Opal"));
+        insert(Transaction.create("Ruby"));
+        insert(Transaction.create("Sapphire"));
+        insert(Transaction.create("Topaz"));
+        insert(Transaction.create("Emerald"));
+        insert(Transaction.create("Diamond"));
+        insert(Transaction.create("Zircon"));
+        insert(Transaction.create("Amethyst"));
     }
 
-    private Transaction createTransaction(String name) {
-        Transaction transaction = new Transaction();
-        transaction.setName(name);
-        transaction.setUpdated(Instant.now());
-        return transaction;
+    /**
+     * Returns a copy of all transactions in insertion order. The copy is
+     * taken under the read lock, so it has either none or all of a batch
+     * and does not change afterwards. Takes time proportional to the
+     * number of transactions.
+     */
+    public List<Transaction> findAll() {
+        epoch.readLock().lock();
+        try {
+            return copyRows(0, Integer.MAX_VALUE);
+        } finally {
+            epoch.readLock().unlock();
+        }
     }
 
-    public List<Transaction> findAll() {
-        return Collections.unmodifiableList(transactions);
+    /**
+     * Finds a page of transactions in insertion order. Takes time
+     * proportional to the size of the page.
+     */
+    public List<Transaction> findAll(int offset, int limit) {
+        epoch.readLock().lock();
+        try {
+            return copyRows(offset, limit);
+        } finally {
+            epoch.readLock().unlock();
+        }
+    }
+
+    /**
+     * Called with the read or write lock held.
+     */
+    private List<Transaction> copyRows(int offset, int limit) {
+        int count = size;
+        String[] names = rows;
+        int from = Math.max(0, Math.min(offset, count));
+        int to = (int) Math.min(count, (long) from + limit);
+        List<Transaction> copy = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            copy.add(index.get(names[i]));
+        }
+        return copy;
+    }
+
+    /**
+     * Finds a page of transactions sorted by given field. Takes O(log n)
+     * plus the size of the page.
+     */
+    public List<Transaction> findAll(int offset, int limit, TransactionField sortedBy, boolean ascending) {
+        epoch.readLock().lock();
+        try {
+            return findAll(sortedIndexes.get(sortedBy).page(offset, limit, ascending));
+        } finally {
+            epoch.readLock().unlock();
+        }
+    }
+
+    public int count() {
+        return size;
+    }
+
+    /**
+     * Finds transactions with given names. Unknown names are skipped.
+     */
+    public List<Transaction> findAll(Collection<String> transactionNames) {
+        List<Transaction> found = new ArrayList<>(transactionNames.size());
+        epoch.readLock().lock();
+        try {
+            for (String transactionName : transactionNames) {
+                Transaction transaction = index.get(transactionName);
+                if (transaction != null) {
+                    found.add(transaction);
+                }
+            }
+        } finally {
+            epoch.readLock().unlock();
+        }
+        return found;
+    }
+
+    /**
+     * Finds transactions with given ids. Unknown ids are skipped.
+     */
+    public List<Transaction> findAll(BitSet transactionIds) {
+        List<Transaction> found = new ArrayList<>(transactionIds.cardinality());
+        epoch.readLock().lock();
+        try {
+            for (int id = transactionIds.nextSetBit(0); id >= 0; id = transactionIds.nextSetBit(id + 1)) {
+                Transaction transaction = findLocked(id);
+                if (transaction != null) {
+                    found.add(transaction);
+                }
+            }
+        } finally {
+            epoch.readLock().unlock();
+        }
+        return found;
+    }
+
+    /**
+     * Replaces snapshot of an existing transaction. Unknown transactions
+     * are ignored.
+     *
+     * @return fields that changed, empty if transaction is unknown or
+     * nothing changed
+     */
+    public Set<TransactionField> update(Transaction transaction) {
+        return applyBatch(Collections.singletonList(Mutation.update(transaction))).getChangedFields();
+    }
+
+    /**
+     * Applies mutations in order as one change. Readers of rows, change
+     * log and aggregates see either none or all of the batch, and the
+     * write lock is taken once however large the batch is. Callers are
+     * expected to notify listeners once with the result.
+     */
+    public BatchResult applyBatch(Collection<Mutation> mutations) {
+        BitSet changedIds = new BitSet();
+        BitSet insertedIds = new BitSet();
+        Set<TransactionField> changedFields = EnumSet.noneOf(TransactionField.class);
+        List<Applied> applied = new ArrayList<>(mutations.size());
+        // Inserted transactions by name, with their latest snapshot. They
+        // are added to sorted indexes once the whole batch is applied.
+        Map<String, Transaction> inserted = new LinkedHashMap<>();
+        long addedAmountMinor = 0;
+        long version;
+        TransactionAggregates batchAggregates;
+        epoch.writeLock().lock();
+        try {
+            String[] current = rows;
+            int count = size;
+            for (Mutation mutation : mutations) {
+                Transaction transaction = mutation.getTransaction();
+                String name = transaction.getName();
+                Transaction previous = index.get(name);
+                if (previous == null) {
+                    if (!mutation.isInsertIfAbsent()) {
+                        continue;
+                    }
+                    index.put(name, transaction);
+                    if (count == current.length) {
+                        current = Arrays.copyOf(current, count * 2);
+                        rows = current;
+                    }
+                    current[count] = name;
+                    ids.put(name, count);
+                    inserted.put(name, transaction);
+                    addedAmountMinor += transaction.getAmountMinor();
+                    applied.add(new Applied(count, transaction, true, EnumSet.allOf(TransactionField.class)));
+                    changedIds.set(count);
+                    insertedIds.set(count);
+                    changedFields.addAll(EnumSet.allOf(TransactionField.class));
+                    count++;
+                } else if (mutation.isUpdateIfPresent()) {
+                    // This is in-memory example so no external service or
+                    // data source is updated. Transaction may have moved in
+                    // sorted order though.
+                    Set<TransactionField> fields = EnumSet.noneOf(TransactionField.class);
+                    for (Map.Entry<TransactionField, SortedIndex<?>> sortedIndex : sortedIndexes.entrySet()) {
+                        if (sortedIndex.getKey().comparator().compare(previous, transaction) != 0) {
+                            fields.add(sortedIndex.getKey());
+                        }
+                    }
+                    index.put(name, transaction);
+                    if (inserted.containsKey(name)) {
+                        inserted.put(name, transaction);
+                    } else {
+                        for (TransactionField field : fields) {
+                            sortedIndexes.get(field).move(previous, transaction);
+                        }
+                    }
+                    if (!fields.isEmpty()) {
+                        int id = ids.get(name);
+                        addedAmountMinor += transaction.getAmountMinor() - previous.getAmountMinor();
+                        applied.add(new Applied(id, transaction, false, fields));
+                        changedIds.set(id);
+                        changedFields.addAll(fields);
+                    }
+                }
+            }
+            addToSortedIndexes(inserted.values(), count);
+            size = count;
+            // Changes go to the log under one lock so that UIs reading the
+            // log never see part of the batch.
+            synchronized (changeLog) {
+                for (Applied change : applied) {
+                    changeLog.append(change.id, change.transaction, change.insert, change.fields);
+                }
+                version = changeLog.version();
+            }
+            if (!inserted.isEmpty() || changedFields.contains(TransactionField.AMOUNT)) {
+                updateAggregates(inserted.size(), addedAmountMinor, version);
+            }
+            batchAggregates = aggregates;
+        } finally {
+            epoch.writeLock().unlock();
+        }
+        return new BatchResult(changedIds, insertedIds, changedFields, batchAggregates, version);
     }
 
-    public void update(Transaction transaction) {
-        // This is in-memory example so no external service or data source
-        // is updated.
+    /**
+     * Adds new transactions one by one when there are few of them compared
+     * to the repository. Otherwise rebuilds indexes, which sorts the old
+     * and new entries together in O(n log n).
+     */
+    private void addToSortedIndexes(Collection<Transaction> transactions, int count) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        for (SortedIndex<?> sortedIndex : sortedIndexes.values()) {
+            if (transactions.size() * 8L > count) {
+                sortedIndex.addAll(transactions);
+            } else {
+                for (Transaction transaction : transactions) {
+                    sortedIndex.add(transaction);
+                }
+            }
+        }
+    }
+
+    /**
+     * Totals of all transactions. Count and sum are kept up to date from
+     * the difference of old and new amounts, min and max are read from
+     * the sorted amount index. Reading them does not lock.
+     */
+    public TransactionAggregates aggregates() {
+        return aggregates;
+    }
+
+    /**
+     * Called with the write lock held, after sorted indexes have been
+     * updated.
+     */
+    private void updateAggregates(int addedCount, long addedAmountMinor, long version) {
+        TransactionAggregates previous = aggregates;
+        Long min = amountIndex.firstKey(true);
+        Long max = amountIndex.firstKey(false);
+        aggregates = new TransactionAggregates(
+                previous.getCount() + addedCount,
+                previous.getSumMinor() + addedAmountMinor,
+                min != null ? min : 0,
+                max != null ? max : 0,
+                version);
     }
 
+    /**
+     * Version of the latest change. Each insert and each update that
+     * changes a transaction increases the version.
+     */
+    public long currentVersion() {
+        return changeLog.version();
+    }
+
+    /**
+     * Finds changes made after given version, oldest first.
+     *
+     * @return changes or empty if the change log no longer reaches back to
+     * given version and caller needs to fall back to the ids it has been
+     * notified about
+     */
+    public Optional<List<TransactionChange>> changesSince(long version) {
+        return changeLog.changesSince(version);
+    }
+
+    /**
+     * Finds transaction by name. Like other reads, waits for a batch that
+     * is being applied.
+     */
     public Transaction find(String transactionName) {
+        epoch.readLock().lock();
+        try {
+            return index.get(transactionName);
+        } finally {
+            epoch.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds transaction by id. Like other reads, waits for a batch that is
+     * being applied.
+     */
+    public Transaction find(int transactionId) {
+        epoch.readLock().lock();
+        try {
+            return findLocked(transactionId);
+        } finally {
+            epoch.readLock().unlock();
+        }
+    }
+
+    /**
+     * Called with the read or write lock held.
+     */
+    private Transaction findLocked(int transactionId) {
+        int count = size;
+        if (transactionId < 0 || transactionId >= count) {
+            return null;
+        }
+        return index.get(rows[transactionId]);
+    }
+
+    /**
+     * @return id of transaction with given name, or -1 if there is none
+     */
+    public int idOf(String transactionName) {
+        epoch.readLock().lock();
+        try {
+            Integer id = ids.get(transactionName);
+            return id != null ? id : -1;
+        } finally {
+            epoch.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts transaction unless there already is one with the same name.
+     *
+     * @return true if transaction was inserted
+     */
+    public boolean insert(Transaction transaction) {
+        return applyBatch(Collections.singletonList(Mutation.insert(transaction))).getInsertedCount() == 1;
+    }
+
+    /**
+     * Inserts many transactions at once, skipping the ones whose name is
+     * already taken.
+     *
+     * @return number of transactions inserted
+     */
+    public int insertAll(Collection<Transaction> transactions) {
+        List<Mutation> inserts = new ArrayList<>(transactions.size());
         for (Transaction transaction : transactions) {
-            if (transaction.getName().equals(transactionName)) {
-                return transaction;
-            }
+            inserts.add(Mutation.insert(transaction));
         }
-        return null;
+        return applyBatch(inserts).getInsertedCount();
     }
 
-    public void insert(Transaction transaction) {
-        transactions.add(transaction);
+    /**
+     * Change applied in a batch, waiting to be added to the change log.
+     */
+    private static class Applied {
+        private final int id;
+        private final Transaction transaction;
+        private final boolean insert;
+        private final Set<TransactionField> fields;
+
+        Applied(int id, Transaction transaction, boolean insert, Set<TransactionField> fields) {
+            this.id = id;
+            this.transaction = transaction;
+            this.insert = insert;
+            this.fields = fields;
+        }
     }
 }
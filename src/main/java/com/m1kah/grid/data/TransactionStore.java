@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps transactions of {@link TransactionRepository} on local disk.
+ *
+ * Changes are appended to a journal by a writer thread. Each
+ * {@link #commit(BitSet)} adds ids of changed transactions to a pending
+ * set, and the writer writes the latest state of all pending
+ * transactions as one frame and forces it to disk, so fsync is paid once
+ * per refresh batch and never on the refresh thread. Transactions are
+ * read from the repository in one consistent read, so a frame never
+ * holds half of a batch. Now and then the writer replaces journal with a
+ * compact snapshot of all transactions.
+ *
+ * On startup snapshot is memory-mapped and loaded, then the journal
+ * is replayed on top of it. A torn frame at the end of the journal is
+ * cut off. Snapshot and journal carry a generation number, so a journal
+ * left behind by a snapshot that was not finished truncating it is not
+ * replayed over newer snapshot.
+ *
+ * A frame that fails to be written is cut off the journal, and its ids
+ * are written again later together with newer commits.
+ *
+ * Configured with system properties:
+ * <ul>
+ *     <li>grid.store.snapshotBytes, journal size that triggers a snapshot</li>
+ *     <li>grid.store.snapshotMillis, longest time between snapshots</li>
+ *     <li>grid.store.retryMillis, time before writing again after a failure</li>
+ * </ul>
+ */
+public class TransactionStore {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionStore.class);
+    private static final int SNAPSHOT_MAGIC = 0x67726964;
+    private static final int FORMAT_VERSION = 1;
+    private static final int JOURNAL_HEADER_BYTES = Long.BYTES;
+    private static final int FRAME_HEADER_BYTES = Integer.BYTES + Long.BYTES;
+    private static final long SNAPSHOT_BYTES = Long.getLong("grid.store.snapshotBytes", 64L * 1024 * 1024);
+    private static final long SNAPSHOT_MILLIS = Long.getLong("grid.store.snapshotMillis", TimeUnit.MINUTES.toMillis(10));
+    private static final long RETRY_MILLIS = Long.getLong("grid.store.retryMillis", 1000);
+    private static volatile TransactionStore instance;
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final TransactionRepository repository;
+    private final long snapshotBytes;
+    private final long snapshotMillis;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "grid-store-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean commitPending = new AtomicBoolean();
+    /**
+     * Ids committed but not yet written, guarded by itself.
+     */
+    private final BitSet pendingIds = new BitSet();
+    private final CRC32 crc = new CRC32();
+    // Only touched by the writer thread after opening.
+    private FileChannel journal;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private long generation;
+    private long lastSnapshotMillis;
+
+    private TransactionStore(Path directory,
+                             TransactionRepository repository,
+                             long snapshotBytes,
+                             long snapshotMillis) {
+        this.snapshotFile = directory.resolve("transactions.snapshot");
+        this.journalFile = directory.resolve("transactions.journal");
+        this.repository = repository;
+        this.snapshotBytes = snapshotBytes;
+        this.snapshotMillis = snapshotMillis;
+    }
+
+    /**
+     * Loads transactions from directory into repository and starts
+     * keeping them there.
+     */
+    public static void start(Path directory) throws IOException {
+        instance = open(directory, TransactionRepository.get(), SNAPSHOT_BYTES, SNAPSHOT_MILLIS);
+    }
+
+    /**
+     * Loads transactions from directory into given repository.
+     *
+     * @param snapshotBytes journal size that triggers a snapshot
+     * @param snapshotMillis longest time between snapshots
+     */
+    static TransactionStore open(Path directory,
+                                 TransactionRepository repository,
+                                 long snapshotBytes,
+                                 long snapshotMillis) throws IOException {
+        Files.createDirectories(directory);
+        TransactionStore store = new TransactionStore(directory, repository, snapshotBytes, snapshotMillis);
+        store.open();
+        return store;
+    }
+
+    /**
+     * Writes latest state of given transactions without waiting for it to
+     * reach disk. Commits requested while one is pending are written
+     * together. Does nothing if store has not been started.
+     */
+    public static void commit(BitSet transactionIds) {
+        TransactionStore store = instance;
+        if (store != null) {
+            store.write(transactionIds);
+        }
+    }
+
+    void write(BitSet transactionIds) {
+        synchronized (pendingIds) {
+            pendingIds.or(transactionIds);
+        }
+        scheduleWrite(0);
+    }
+
+    private void scheduleWrite(long delayMillis) {
+        if (commitPending.compareAndSet(false, true)) {
+            try {
+                writer.schedule(this::writeJournal, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                logger.debug("Transaction store has been stopped");
+            }
+        }
+    }
+
+    /**
+     * Writes pending changes and closes the store.
+     */
+    public static void stop() {
+        TransactionStore store = instance;
+        if (store == null) {
+            return;
+        }
+        instance = null;
+        store.shutdown();
+    }
+
+    /**
+     * Writes pending changes and closes files, waiting for both.
+     */
+    void shutdown() {
+        writer.execute(this::writeJournal);
+        writer.execute(this::close);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void open() throws IOException {
+        long started = System.currentTimeMillis();
+        int loaded = loadSnapshot();
+        journal = FileChannel.open(journalFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int replayed = 0;
+        if (readJournalGeneration() == generation) {
+            replayed = replayJournal();
+        } else {
+            resetJournal();
+        }
+        lastSnapshotMillis = System.currentTimeMillis();
+        logger.info("Loaded {} transactions from snapshot and {} from journal in {} ms",
+                loaded, replayed, System.currentTimeMillis() - started);
+    }
+
+    private int loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            MappedByteBuffer snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (snapshot.getInt() != SNAPSHOT_MAGIC || snapshot.getInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown snapshot format in " + snapshotFile);
+            }
+            generation = snapshot.getLong();
+            int count = snapshot.getInt();
+            List<Mutation> mutations = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                mutations.add(Mutation.upsert(readTransaction(snapshot)));
+            }
+            repository.applyBatch(mutations);
+            return count;
+        }
+    }
+
+    private long readJournalGeneration() throws IOException {
+        if (journal.size() < JOURNAL_HEADER_BYTES) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_BYTES);
+        while (header.hasRemaining() && journal.read(header, header.position()) >= 0) {
+            // Read until header is full.
+        }
+        return header.getLong(0);
+    }
+
+    /**
+     * Empties journal and marks it to follow current snapshot.
+     */
+    private void resetJournal() throws IOException {
+        journal.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_BYTES);
+        header.putLong(0, generation);
+        while (header.hasRemaining()) {
+            journal.write(header, header.position());
+        }
+        journal.position(JOURNAL_HEADER_BYTES);
+        journal.force(true);
+    }
+
+    private int replayJournal() throws IOException {
+        long size = journal.size();
+        MappedByteBuffer frames = journal.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        frames.position(JOURNAL_HEADER_BYTES);
+        int replayed = 0;
+        int validEnd = JOURNAL_HEADER_BYTES;
+        while (frames.remaining() >= FRAME_HEADER_BYTES) {
+            int length = frames.getInt();
+            long checksum = frames.getLong();
+            if (length < 0 || length > frames.remaining()) {
+                break;
+            }
+            ByteBuffer payload = frames.slice();
+            payload.limit(length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if (crc.getValue() != checksum) {
+                break;
+            }
+            // Each frame is one group commit and is applied as one batch.
+            int count = payload.getInt();
+            List<Mutation> mutations = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                mutations.add(Mutation.upsert(readTransaction(payload)));
+            }
+            repository.applyBatch(mutations);
+            replayed += count;
+            frames.position(frames.position() + length);
+            validEnd = frames.position();
+        }
+        if (validEnd < size) {
+            logger.warn("Cut off {} bytes of incomplete journal", size - validEnd);
+            journal.truncate(validEnd);
+        }
+        journal.position(validEnd);
+        return replayed;
+    }
+
+    private void writeJournal() {
+        commitPending.set(false);
+        BitSet ids;
+        synchronized (pendingIds) {
+            ids = (BitSet) pendingIds.clone();
+            pendingIds.clear();
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        long frameStart = -1;
+        try {
+            frameStart = journal.position();
+            // Read in one go under the repository's read lock, so frame
+            // has either all or none of a batch applied meanwhile.
+            List<Transaction> latest = repository.findAll(ids);
+            buffer.clear();
+            buffer.position(FRAME_HEADER_BYTES);
+            buffer.putInt(latest.size());
+            for (Transaction transaction : latest) {
+                writeTransaction(transaction);
+            }
+            buffer.flip();
+            int length = buffer.limit() - FRAME_HEADER_BYTES;
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(FRAME_HEADER_BYTES);
+            crc.reset();
+            crc.update(payload);
+            buffer.putInt(0, length);
+            buffer.putLong(Integer.BYTES, crc.getValue());
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+            journal.force(false);
+        } catch (IOException e) {
+            logger.error("Failed to write transaction journal, retrying in {} ms", RETRY_MILLIS, e);
+            // Part of the frame may have been written. Later frames would
+            // not be replayed after it, so it is cut off.
+            cutOff(frameStart);
+            synchronized (pendingIds) {
+                pendingIds.or(ids);
+            }
+            scheduleWrite(RETRY_MILLIS);
+            return;
+        }
+        try {
+            if (journal.size() >= snapshotBytes
+                    || System.currentTimeMillis() - lastSnapshotMillis >= snapshotMillis) {
+                writeSnapshot();
+            }
+        } catch (IOException e) {
+            // Changes are in the journal already.
+            logger.error("Failed to write transaction snapshot", e);
+        }
+    }
+
+    private void cutOff(long frameStart) {
+        if (frameStart < 0) {
+            return;
+        }
+        try {
+            journal.truncate(frameStart);
+            journal.position(frameStart);
+        } catch (IOException e) {
+            logger.warn("Failed to cut off unwritten journal frame", e);
+        }
+    }
+
+    /**
+     * Writes all transactions to a new snapshot and empties journal.
+     * Transactions committed later are written to the new journal even if
+     * snapshot already has them, which is harmless since frames hold
+     * latest state and not deltas.
+     */
+    private void writeSnapshot() throws IOException {
+        List<Transaction> transactions = repository.findAll();
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            buffer.clear();
+            buffer.putInt(SNAPSHOT_MAGIC);
+            buffer.putInt(FORMAT_VERSION);
+            buffer.putLong(generation + 1);
+            buffer.putInt(transactions.size());
+            for (Transaction transaction : transactions) {
+                if (buffer.remaining() < 1024) {
+                    flush(channel);
+                }
+                writeTransaction(transaction);
+            }
+            flush(channel);
+            channel.force(true);
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation++;
+        resetJournal();
+        lastSnapshotMillis = System.currentTimeMillis();
+        logger.debug("Wrote snapshot of {} transactions", transactions.size());
+    }
+
+    private void flush(FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void writeTransaction(Transaction transaction) {
+        byte[] name = transaction.getName().getBytes(StandardCharsets.UTF_8);
+        int needed = Short.BYTES + name.length + 2 * Long.BYTES;
+        if (buffer.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        buffer.putShort((short) name.length);
+        buffer.put(name);
+        buffer.putLong(transaction.getAmountMinor());
+        buffer.putLong(transaction.getUpdatedMillis());
+    }
+
+    private static Transaction readTransaction(ByteBuffer source) {
+        byte[] name = new byte[source.getShort() & 0xffff];
+        source.get(name);
+        return new Transaction(new String(name, StandardCharsets.UTF_8), source.getLong(), source.getLong());
+    }
+
+    private void close() {
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close transaction journal", e);
+        }
+    }
+}
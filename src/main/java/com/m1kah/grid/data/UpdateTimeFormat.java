@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shared formatter for transaction update times in a time zone and
+ * locale.
+ *
+ * Formatters are created once per time zone and locale and reused by all
+ * UIs. {@link DateTimeFormatter} is immutable so the same instance can be
+ * used from any thread.
+ */
+public final class UpdateTimeFormat implements Serializable {
+    private static final String PATTERN = "HH:mm:ss.SSS";
+    private static final ConcurrentMap<List<Object>, UpdateTimeFormat> formats = new ConcurrentHashMap<>();
+    private static final UpdateTimeFormat DEFAULT = get(ZoneId.systemDefault(), Locale.ENGLISH);
+    private final ZoneId zone;
+    private final Locale locale;
+    private final transient DateTimeFormatter formatter;
+
+    private UpdateTimeFormat(ZoneId zone, Locale locale) {
+        this.zone = zone;
+        this.locale = locale;
+        this.formatter = DateTimeFormatter.ofPattern(PATTERN)
+                .withZone(zone)
+                .withLocale(locale);
+    }
+
+    public static UpdateTimeFormat get(ZoneId zone, Locale locale) {
+        return formats.computeIfAbsent(Arrays.asList(zone, locale), key -> new UpdateTimeFormat(zone, locale));
+    }
+
+    /**
+     * Format in server's time zone.
+     */
+    public static UpdateTimeFormat defaultFormat() {
+        return DEFAULT;
+    }
+
+    public String format(long epochMillis) {
+        return formatter.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    private Object readResolve() {
+        return get(zone, locale);
+    }
+}
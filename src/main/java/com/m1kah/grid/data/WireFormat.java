@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary format of change batches shared by {@link ChangeEncoder} and
+ * {@link ChangeDecoder}.
+ *
+ * <pre>
+ * batch:  byte format version, int record count,
+ *         varlong base version, varlong base millis, records
+ * record: byte field mask, varint id,
+ *         varint name length and name if DEFINE bit is set,
+ *         zigzag varlong version delta,
+ *         zigzag varlong amount in minor units if AMOUNT bit is set,
+ *         zigzag varlong millis delta if UPDATED bit is set
+ * </pre>
+ *
+ * Field mask has bit {@code 1 << field.ordinal()} set for each
+ * changed {@link TransactionField}, {@link #INSERT} for new transactions
+ * and {@link #DEFINE} when the record defines a new id. Names are
+ * interned: a name is written once with a new id and later records
+ * refer to the id. Version and update time are
+ * deltas from the previous record, starting from the base values.
+ */
+final class WireFormat {
+    static final byte FORMAT_VERSION = 1;
+    static final int INSERT = 0x80;
+    static final int DEFINE = 0x40;
+    static final int AMOUNT = 1 << TransactionField.AMOUNT.ordinal();
+    static final int UPDATED = 1 << TransactionField.UPDATED.ordinal();
+    static final int COUNT_OFFSET = 1;
+
+    private WireFormat() {
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    static void putZigZag(ByteBuffer buffer, long value) {
+        putVarLong(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    static long getZigZag(ByteBuffer buffer) {
+        long value = getVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
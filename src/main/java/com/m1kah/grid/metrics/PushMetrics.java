@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process level measurements of the refresh and push pipeline. Times are
+ * in nanoseconds.
+ */
+public final class PushMetrics {
+    /**
+     * Duration of one background refresh.
+     */
+    public static final Histogram REFRESH_DURATION = new Histogram();
+    /**
+     * Number of transactions changed by one background refresh.
+     */
+    public static final Histogram REFRESH_UPDATES = new Histogram();
+    /**
+     * Time to hand one refresh over to all broadcast listeners.
+     */
+    public static final Histogram BROADCAST_FAN_OUT = new Histogram();
+    /**
+     * Time a UI waited for its session lock before applying an update.
+     */
+    public static final Histogram ACCESS_WAIT = new Histogram();
+    /**
+     * Time a UI spent applying an update while holding its session lock.
+     */
+    public static final Histogram ACCESS_EXECUTION = new Histogram();
+    /**
+     * Time from a cluster node sending changed transactions to another
+     * node applying them.
+     */
+    public static final Histogram CLUSTER_PROPAGATION = new Histogram();
+    /**
+     * Updated ids that were never delivered because their listener was
+     * removed or the broadcaster was shut down.
+     */
+    public static final LongAdder DROPPED_UPDATES = new LongAdder();
+    /**
+     * Pushes sent to clients.
+     */
+    public static final LongAdder PUSHES = new LongAdder();
+
+    private PushMetrics() {
+    }
+}
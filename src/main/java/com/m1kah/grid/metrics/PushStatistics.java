@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.metrics;
+
+import com.m1kah.grid.cluster.Cluster;
+import com.m1kah.grid.task.BackgroundDataRefresh;
+import com.m1kah.grid.ui.Broadcaster;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+public class PushStatistics implements PushStatisticsMBean {
+    private static final String OBJECT_NAME = "com.m1kah.grid:type=PushStatistics";
+
+    public static void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new PushStatistics(), name);
+        }
+    }
+
+    public static void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Override
+    public long getRefreshCount() {
+        return PushMetrics.REFRESH_DURATION.getCount();
+    }
+
+    @Override
+    public long getRefreshIntervalMillis() {
+        return BackgroundDataRefresh.getEffectiveIntervalMillis();
+    }
+
+    @Override
+    public long getRefreshDurationP50() {
+        return micros(PushMetrics.REFRESH_DURATION.getPercentile(0.5));
+    }
+
+    @Override
+    public long getRefreshDurationP99() {
+        return micros(PushMetrics.REFRESH_DURATION.getPercentile(0.99));
+    }
+
+    @Override
+    public double getUpdatesPerRefreshMean() {
+        return PushMetrics.REFRESH_UPDATES.getMean();
+    }
+
+    @Override
+    public long getBroadcastFanOutP99() {
+        return micros(PushMetrics.BROADCAST_FAN_OUT.getPercentile(0.99));
+    }
+
+    @Override
+    public long getAccessWaitP50() {
+        return micros(PushMetrics.ACCESS_WAIT.getPercentile(0.5));
+    }
+
+    @Override
+    public long getAccessWaitP99() {
+        return micros(PushMetrics.ACCESS_WAIT.getPercentile(0.99));
+    }
+
+    @Override
+    public long getAccessExecutionP50() {
+        return micros(PushMetrics.ACCESS_EXECUTION.getPercentile(0.5));
+    }
+
+    @Override
+    public long getAccessExecutionP99() {
+        return micros(PushMetrics.ACCESS_EXECUTION.getPercentile(0.99));
+    }
+
+    @Override
+    public int getListenerCount() {
+        return Broadcaster.getListenerCount();
+    }
+
+    @Override
+    public int getPushQueueDepth() {
+        return Broadcaster.getPushQueueDepth();
+    }
+
+    @Override
+    public long getPendingUpdateCount() {
+        return Broadcaster.getPendingUpdateCount();
+    }
+
+    @Override
+    public long getCoalescedUpdateCount() {
+        return Broadcaster.getCoalescedUpdateCount();
+    }
+
+    @Override
+    public long getDroppedUpdateCount() {
+        return PushMetrics.DROPPED_UPDATES.sum();
+    }
+
+    @Override
+    public long getPushCount() {
+        return PushMetrics.PUSHES.sum();
+    }
+
+    @Override
+    public long getDemotionCount() {
+        return Broadcaster.getDemotionCount();
+    }
+
+    @Override
+    public boolean isClusterLeader() {
+        return Cluster.isLeader();
+    }
+
+    @Override
+    public long getClusterPropagationP99() {
+        return micros(PushMetrics.CLUSTER_PROPAGATION.getPercentile(0.99));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.metrics;
+
+/**
+ * Refresh and push pipeline measurements exposed over JMX. Times are in
+ * microseconds.
+ */
+public interface PushStatisticsMBean {
+    long getRefreshCount();
+
+    long getRefreshIntervalMillis();
+
+    long getRefreshDurationP50();
+
+    long getRefreshDurationP99();
+
+    double getUpdatesPerRefreshMean();
+
+    long getBroadcastFanOutP99();
+
+    long getAccessWaitP50();
+
+    long getAccessWaitP99();
+
+    long getAccessExecutionP50();
+
+    long getAccessExecutionP99();
+
+    int getListenerCount();
+
+    int getPushQueueDepth();
+
+    long getPendingUpdateCount();
+
+    long getCoalescedUpdateCount();
+
+    long getDroppedUpdateCount();
+
+    long getPushCount();
+
+    long getDemotionCount();
+
+    boolean isClusterLeader();
+
+    long getClusterPropagationP99();
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.task;
+
+/**
+ * Refresh policy that follows the load.
+ *
+ * <ul>
+ *     <li>When more than the saturated share of listeners have a delivery
+ *     waiting, the interval grows by the backoff factor so UIs can catch
+ *     up.</li>
+ *     <li>When a refresh changes at least the burst share of all
+ *     transactions, the interval shrinks by the backoff factor to follow
+ *     the burst.</li>
+ *     <li>When a refresh changes nothing, the interval grows.</li>
+ *     <li>Otherwise the interval moves half way back to the base interval.</li>
+ * </ul>
+ *
+ * The interval is at least twice the duration of the last refresh so the
+ * refresh thread is never busy more than half of the time, and it always
+ * stays within the configured bounds. Thresholds are shares of
+ * repository size and listener count so the same settings work for any
+ * number of rows and UIs.
+ */
+public class AdaptiveRefreshPolicy implements RefreshPolicy {
+    private final long baseMillis;
+    private final long minMillis;
+    private final long maxMillis;
+    private final double backoffFactor;
+    private final double burstRatio;
+    private final double saturatedQueueRatio;
+
+    public AdaptiveRefreshPolicy(long baseMillis,
+                                 long minMillis,
+                                 long maxMillis,
+                                 double backoffFactor,
+                                 double burstRatio,
+                                 double saturatedQueueRatio) {
+        if (minMillis > baseMillis || baseMillis > maxMillis || backoffFactor <= 1
+                || burstRatio <= 0 || saturatedQueueRatio <= 0) {
+            throw new IllegalArgumentException("Invalid adaptive refresh policy");
+        }
+        this.baseMillis = baseMillis;
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+        this.backoffFactor = backoffFactor;
+        this.burstRatio = burstRatio;
+        this.saturatedQueueRatio = saturatedQueueRatio;
+    }
+
+    @Override
+    public long nextIntervalMillis(RefreshOutcome outcome) {
+        long interval = outcome.getIntervalMillis();
+        if (outcome.getPushQueueDepth() > outcome.getListenerCount() * saturatedQueueRatio) {
+            interval = (long) (interval * backoffFactor);
+        } else if (outcome.getUpdateCount() > 0
+                && outcome.getUpdateCount() >= outcome.getTransactionCount() * burstRatio) {
+            interval = (long) (interval / backoffFactor);
+        } else if (outcome.getUpdateCount() == 0) {
+            interval = (long) (interval * backoffFactor);
+        } else {
+            interval += (baseMillis - interval) / 2;
+        }
+        interval = Math.max(interval, outcome.getDurationMillis() * 2);
+        return Math.min(maxMillis, Math.max(minMillis, interval));
+    }
+}
@@ -22,40 +22,231 @@
 
 package com.m1kah.grid.task;
 
+import com.m1kah.grid.cluster.Cluster;
+import com.m1kah.grid.data.BatchResult;
+import com.m1kah.grid.data.TransactionRepository;
+import com.m1kah.grid.data.TransactionStore;
 import com.m1kah.grid.ui.Broadcaster;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class BackgroundDataRefresh {
     private static final Logger logger = LoggerFactory.getLogger(BackgroundDataRefresh.class);
     private static final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    private static final long INTERVAL_MILLIS = Long.getLong("grid.refresh.intervalMillis", 5000);
+    private static final long MIN_INTERVAL_MILLIS = Long.getLong("grid.refresh.minIntervalMillis", 1000);
+    private static final RefreshPolicy policy = createPolicy();
+    /**
+     * Pool that fetches partitions of transactions in parallel.
+     */
+    private static final ForkJoinPool refreshPool = new ForkJoinPool(
+            Integer.getInteger("grid.refresh.parallelism", Runtime.getRuntime().availableProcessors()));
+    private static final int PARTITION_SIZE = Integer.getInteger("grid.refresh.partitionSize", 1024);
+    /**
+     * Time between starts of the latest refreshes.
+     */
+    private static volatile long effectiveIntervalMillis = INTERVAL_MILLIS;
+    /**
+     * Transactions changed by the latest refresh or streamed batch.
+     * Written by the thread that applied the changes.
+     */
+    private static volatile int lastUpdateCount;
+    private static volatile double progress;
+    // Only replaced by the refresh thread.
+    private static volatile StreamingRefresh streamingRefresh;
 
+    /**
+     * Creates refresh policy configured with system properties:
+     * <ul>
+     *     <li>grid.refresh.policy, adaptive (default) or fixed</li>
+     *     <li>grid.refresh.intervalMillis, fixed or base interval</li>
+     *     <li>grid.refresh.minIntervalMillis, shortest adaptive interval</li>
+     *     <li>grid.refresh.maxIntervalMillis, longest adaptive interval</li>
+     *     <li>grid.refresh.backoffFactor, how fast adaptive interval changes</li>
+     *     <li>grid.refresh.burstRatio, share of transactions changed in one
+     *     refresh that speeds up refreshing</li>
+     *     <li>grid.refresh.saturatedQueueRatio, waiting UI deliveries per
+     *     listener that slow down refreshing</li>
+     * </ul>
+     *
+     * Parallelism of a refresh is configured with grid.refresh.parallelism
+     * and grid.refresh.partitionSize.
+     */
+    private static RefreshPolicy createPolicy() {
+        if ("fixed".equals(System.getProperty("grid.refresh.policy"))) {
+            return RefreshPolicy.fixed(INTERVAL_MILLIS);
+        }
+        return new AdaptiveRefreshPolicy(
+                INTERVAL_MILLIS,
+                MIN_INTERVAL_MILLIS,
+                Long.getLong("grid.refresh.maxIntervalMillis", 30000),
+                Double.parseDouble(System.getProperty("grid.refresh.backoffFactor", "2")),
+                Double.parseDouble(System.getProperty("grid.refresh.burstRatio", "0.8")),
+                Double.parseDouble(System.getProperty("grid.refresh.saturatedQueueRatio", "0.5")));
+    }
+
+    /**
+     * Starts refreshing transactions. With system property
+     * grid.refresh.mode=stream transactions are pushed by a
+     * {@link TransactionSource} instead of polled, see
+     * {@link #subscribe(TransactionSource)}.
+     */
     public static void executeAsRepeatingTask() {
+        if ("stream".equals(System.getProperty("grid.refresh.mode"))) {
+            subscribe(new GeneratedTransactionSource(
+                    TransactionRepository.get(),
+                    Long.getLong("grid.stream.periodMicros", 1000)));
+            return;
+        }
         logger.info("Started repeating background task");
-        executorService.scheduleAtFixedRate(
-                new RefreshDataTask(
-                        BackgroundDataRefresh::updateUiAndRepeat,
-                        BackgroundDataRefresh::logAndRepeat),
-                5,
-                5,
-                TimeUnit.SECONDS);
+        RefreshDataTask task = new RefreshDataTask(
+                BackgroundDataRefresh::updateUiAndRepeat,
+                BackgroundDataRefresh::logAndRepeat,
+                BackgroundDataRefresh::updateProgress,
+                refreshPool,
+                PARTITION_SIZE);
+        schedule(task, INTERVAL_MILLIS);
+    }
+
+    /**
+     * Applies transactions from source in micro-batches configured with
+     * system properties:
+     * <ul>
+     *     <li>grid.stream.capacity, transactions requested ahead</li>
+     *     <li>grid.stream.batchSize, transactions that flush a batch</li>
+     *     <li>grid.stream.batchMillis, longest time before flushing a batch</li>
+     *     <li>grid.stream.checkMillis, how often leadership and a failed
+     *     subscription are checked</li>
+     * </ul>
+     *
+     * Only the cluster leader subscribes to the source, and other nodes get
+     * the streamed changes from the leader like polled ones. A node that
+     * loses leadership cancels its subscription. A subscription that fails
+     * is replaced with a new one at the next check, so the source must
+     * accept a new subscriber after the previous one has gone.
+     */
+    public static void subscribe(TransactionSource source) {
+        long checkMillis = Long.getLong("grid.stream.checkMillis", 1000);
+        try {
+            executorService.scheduleWithFixedDelay(
+                    () -> checkSubscription(source), 0, checkMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Background task has been stopped");
+        }
+    }
+
+    private static void checkSubscription(TransactionSource source) {
+        StreamingRefresh current = streamingRefresh;
+        if (!Cluster.isLeader()) {
+            if (current != null) {
+                logger.info("Not leading, cancelled streaming transaction source");
+                current.cancel();
+                streamingRefresh = null;
+            }
+            return;
+        }
+        if (current != null && !current.isFailed()) {
+            return;
+        }
+        logger.info("Subscribed to streaming transaction source");
+        StreamingRefresh refresh = new StreamingRefresh(
+                BackgroundDataRefresh::updateUiAndRepeat,
+                BackgroundDataRefresh::logAndRepeat,
+                Integer.getInteger("grid.stream.capacity", 4096),
+                Integer.getInteger("grid.stream.batchSize", 512),
+                Long.getLong("grid.stream.batchMillis", 250));
+        streamingRefresh = refresh;
+        source.subscribe(refresh);
+    }
+
+    /**
+     * Next refresh is scheduled only after the previous one has finished,
+     * so refreshes never overlap or bunch up.
+     */
+    private static void schedule(RefreshDataTask task, long delayMillis) {
+        try {
+            executorService.schedule(() -> runAndReschedule(task), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Background task has been stopped");
+        }
+    }
+
+    private static void runAndReschedule(RefreshDataTask task) {
+        if (!Cluster.isLeader()) {
+            // Other nodes get changes from the leader. Followers check at
+            // the shortest interval so that they take over without delay,
+            // and the policy starts from the base interval when they do.
+            progress = 1;
+            effectiveIntervalMillis = INTERVAL_MILLIS;
+            schedule(task, Math.min(MIN_INTERVAL_MILLIS, INTERVAL_MILLIS));
+            return;
+        }
+        long started = System.currentTimeMillis();
+        lastUpdateCount = 0;
+        progress = 0;
+        try {
+            task.run();
+        } finally {
+            long duration = System.currentTimeMillis() - started;
+            long interval = policy.nextIntervalMillis(new RefreshOutcome(
+                    effectiveIntervalMillis,
+                    duration,
+                    lastUpdateCount,
+                    TransactionRepository.get().count(),
+                    Broadcaster.getPushQueueDepth(),
+                    Broadcaster.getListenerCount()));
+            if (interval != effectiveIntervalMillis) {
+                logger.debug("Refresh interval changed to {} ms", interval);
+            }
+            effectiveIntervalMillis = interval;
+            schedule(task, Math.max(0, interval - duration));
+        }
     }
 
     private static void logAndRepeat(Throwable t) {
         logger.error("Failed to update transactions", t);
     }
 
-    private static void updateUiAndRepeat(List<String> updatedTransactionIds) {
-        Broadcaster.notifyUis(updatedTransactionIds);
+    private static void updateProgress(double taskProgress) {
+        progress = taskProgress;
+    }
+
+    private static void updateUiAndRepeat(BatchResult result) {
+        lastUpdateCount = result.getIds().cardinality();
+        // Whole refresh batch is written to disk in one group commit.
+        TransactionStore.commit(result.getIds());
+        Cluster.publish(result.getIds());
+        Broadcaster.notifyUis(result);
+    }
+
+    /**
+     * Current time between refreshes, decided by the refresh policy.
+     */
+    public static long getEffectiveIntervalMillis() {
+        return effectiveIntervalMillis;
+    }
+
+    /**
+     * Progress of the running refresh between 0 and 1. Stays at 1 between
+     * refreshes.
+     */
+    public static double getProgress() {
+        return progress;
     }
 
     public static void cancelRepeatingTask() {
         logger.info("Stopped repeating background task");
         executorService.shutdown();
+        refreshPool.shutdown();
+        StreamingRefresh refresh = streamingRefresh;
+        if (refresh != null) {
+            refresh.cancel();
+        }
     }
 }
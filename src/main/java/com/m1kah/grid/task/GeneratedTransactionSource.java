@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.task;
+
+import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionGenerator;
+import com.m1kah.grid.data.TransactionRepository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reference source that emits random updates to existing transactions
+ * at a fixed rate, and now and then a new transaction from
+ * {@link TransactionGenerator}.
+ *
+ * Updates are made to the latest transactions this source has emitted
+ * itself, so they never depend on how far the subscriber has got in
+ * applying them. Each subscription starts from the transactions in the
+ * repository at that time, so a node that takes over streaming from
+ * another continues from the replicated state. New transactions are only
+ * emitted with names that are not taken yet.
+ *
+ * Emits only as many transactions as the subscriber has requested. Has
+ * one subscriber at a time, a new one can subscribe after the previous
+ * one has cancelled or failed.
+ */
+public class GeneratedTransactionSource implements TransactionSource {
+    private final TransactionRepository repository;
+    private final long periodMicros;
+    /**
+     * Latest emitted transaction by name, and the names in a list to pick
+     * from. Only touched by the emitting thread of the current
+     * subscription.
+     */
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final List<Transaction> latest = new ArrayList<>();
+    private ScheduledExecutorService executorService;
+
+    /**
+     * @param repository transactions that updates start from
+     * @param periodMicros time between emitted transactions
+     */
+    public GeneratedTransactionSource(TransactionRepository repository, long periodMicros) {
+        this.repository = repository;
+        this.periodMicros = periodMicros;
+    }
+
+    @Override
+    public synchronized void subscribe(Subscriber subscriber) {
+        if (executorService != null) {
+            // Previous subscriber is gone, wait for its last emit so that
+            // latest state is not touched by two threads.
+            executorService.shutdownNow();
+            try {
+                executorService.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        indexes.clear();
+        latest.clear();
+        repository.findAll().forEach(this::remember);
+        ScheduledExecutorService emitter = Executors.newSingleThreadScheduledExecutor();
+        executorService = emitter;
+        AtomicLong requested = new AtomicLong();
+        subscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long count) {
+                requested.addAndGet(count);
+            }
+
+            @Override
+            public void cancel() {
+                emitter.shutdownNow();
+            }
+        });
+        emitter.scheduleAtFixedRate(
+                () -> emit(subscriber, requested, emitter),
+                periodMicros,
+                periodMicros,
+                TimeUnit.MICROSECONDS);
+    }
+
+    private void emit(Subscriber subscriber, AtomicLong requested, ScheduledExecutorService emitter) {
+        if (requested.get() <= 0) {
+            return;
+        }
+        try {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            Transaction transaction = random.nextDouble() < 0.001 ? nextNew() : null;
+            if (transaction == null) {
+                if (latest.isEmpty()) {
+                    return;
+                }
+                transaction = TransactionGenerator.update(latest.get(random.nextInt(latest.size())), random);
+            }
+            remember(transaction);
+            requested.decrementAndGet();
+            subscriber.onNext(transaction);
+        } catch (RuntimeException e) {
+            emitter.shutdown();
+            subscriber.onError(e);
+        }
+    }
+
+    /**
+     * @return transaction with a name that is not taken, or null if there
+     * are no more names
+     */
+    private Transaction nextNew() {
+        Optional<Transaction> transaction = TransactionGenerator.next();
+        while (transaction.isPresent() && indexes.containsKey(transaction.get().getName())) {
+            transaction = TransactionGenerator.next();
+        }
+        return transaction.orElse(null);
+    }
+
+    private void remember(Transaction transaction) {
+        Integer index = indexes.get(transaction.getName());
+        if (index == null) {
+            indexes.put(transaction.getName(), latest.size());
+            latest.add(transaction);
+        } else {
+            latest.set(index, transaction);
+        }
+    }
+}
@@ -22,66 +22,128 @@
 
 package com.m1kah.grid.task;
 
+import com.m1kah.grid.data.BatchResult;
+import com.m1kah.grid.data.Mutation;
 import com.m1kah.grid.data.Transaction;
 import com.m1kah.grid.data.TransactionGenerator;
 import com.m1kah.grid.data.TransactionRepository;
+import com.m1kah.grid.metrics.PushMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.BigDecimal;
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Fetches updates to all transactions.
+ *
+ * Transactions are split into partitions of consecutive rows that are
+ * fetched in parallel on the given pool. Updates of each partition are
+ * merged in partition order and applied to the repository as one batch,
+ * so UIs see the whole refresh at once and are notified once. Fields
+ * changed in any of them are reported along with the ids. Progress is
+ * reported by the calling thread as partitions are merged.
+ */
 class RefreshDataTask implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(RefreshDataTask.class);
+    private final TransactionRepository repository;
     private final TaskDoneListener taskDoneListener;
     private final TaskFailListener taskFailListener;
+    private final TaskProgressListener taskProgressListener;
+    private final ForkJoinPool pool;
+    private final int partitionSize;
 
     RefreshDataTask(TaskDoneListener taskDoneListener,
                     TaskFailListener taskFailListener) {
+        this(taskDoneListener, taskFailListener, progress -> { }, ForkJoinPool.commonPool(), 1024);
+    }
+
+    RefreshDataTask(TaskDoneListener taskDoneListener,
+                    TaskFailListener taskFailListener,
+                    TaskProgressListener taskProgressListener,
+                    ForkJoinPool pool,
+                    int partitionSize) {
+        this(TransactionRepository.get(), taskDoneListener, taskFailListener, taskProgressListener, pool, partitionSize);
+    }
+
+    RefreshDataTask(TransactionRepository repository,
+                    TaskDoneListener taskDoneListener,
+                    TaskFailListener taskFailListener,
+                    TaskProgressListener taskProgressListener,
+                    ForkJoinPool pool,
+                    int partitionSize) {
+        this.repository = repository;
         this.taskDoneListener = taskDoneListener;
         this.taskFailListener = taskFailListener;
+        this.taskProgressListener = taskProgressListener;
+        this.pool = pool;
+        this.partitionSize = partitionSize;
     }
 
     @Override
     public void run() {
         logger.debug("Background task called");
         try {
-            List<String> updatedTransactionIds = fetchUpdatesToTransactions();
-            taskDoneListener.onTaskDone(updatedTransactionIds);
+            long started = System.nanoTime();
+            BatchResult result = fetchUpdatesToTransactions();
+            PushMetrics.REFRESH_DURATION.record(System.nanoTime() - started);
+            PushMetrics.REFRESH_UPDATES.record(result.getIds().cardinality());
+            taskDoneListener.onTaskDone(result);
         } catch (RuntimeException e) {
             taskFailListener.onTaskFail(e);
         }
     }
 
-    private List<String> fetchUpdatesToTransactions() {
+    private BatchResult fetchUpdatesToTransactions() {
         return updateRandomTransactions();
     }
 
-    private List<String> updateRandomTransactions() {
-        List<String> updatedTransactions = new ArrayList<>();
-        for (Transaction transaction : TransactionRepository.get().findAll()) {
-            if (Math.random() < 0.3) {
-                continue;
+    private BatchResult updateRandomTransactions() {
+        List<Transaction> transactions = repository.findAll();
+        List<Mutation> mutations = new ArrayList<>(transactions.size());
+        if (transactions.size() <= partitionSize) {
+            updateRandomTransactions(transactions, mutations);
+        } else {
+            int partitionCount = (transactions.size() + partitionSize - 1) / partitionSize;
+            List<ForkJoinTask<List<Mutation>>> partitions = new ArrayList<>(partitionCount);
+            for (int from = 0; from < transactions.size(); from += partitionSize) {
+                List<Transaction> partition = transactions.subList(
+                        from, Math.min(transactions.size(), from + partitionSize));
+                partitions.add(pool.submit(() -> {
+                    List<Mutation> updated = new ArrayList<>(partition.size());
+                    updateRandomTransactions(partition, updated);
+                    return updated;
+                }));
             }
-
-            BigDecimal newAmount = transaction.getAmount()
-                    .add(new BigDecimal(Math.random() * 100))
-                    .setScale(0, BigDecimal.ROUND_HALF_UP);
-            transaction.setAmount(newAmount);
-            transaction.setUpdated(Instant.now());
-            updatedTransactions.add(transaction.getName());
-            TransactionRepository.get().update(transaction);
-        }
-        if (Math.random() < 0.2 && TransactionGenerator.hasMore()) {
-            Transaction transaction = TransactionGenerator.create();
-            if (TransactionRepository.get().find(transaction.getName()) == null) {
-                TransactionRepository.get().insert(transaction);
+            // Progress is reported from this thread only, in partition
+            // order, so that it never goes backwards. Applying the batch
+            // counts as the last step.
+            for (int i = 0; i < partitionCount; i++) {
+                mutations.addAll(partitions.get(i).join());
+                taskProgressListener.onTaskProgress((double) (i + 1) / (partitionCount + 1));
             }
-            updatedTransactions.add(transaction.getName());
         }
-        return updatedTransactions;
+        if (Math.random() < 0.2) {
+            // Inserted in the same batch, only if nobody else has inserted
+            // it first.
+            TransactionGenerator.next().map(Mutation::insert).ifPresent(mutations::add);
+        }
+        BatchResult result = repository.applyBatch(mutations);
+        taskProgressListener.onTaskProgress(1);
+        return result;
     }
 
+    private void updateRandomTransactions(List<Transaction> transactions, List<Mutation> mutations) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (Transaction transaction : transactions) {
+            if (random.nextDouble() < 0.3) {
+                continue;
+            }
+
+            mutations.add(Mutation.update(TransactionGenerator.update(transaction, random)));
+        }
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.task;
+
+/**
+ * What happened in a background refresh.
+ */
+public class RefreshOutcome {
+    private final long intervalMillis;
+    private final long durationMillis;
+    private final int updateCount;
+    private final int transactionCount;
+    private final int pushQueueDepth;
+    private final int listenerCount;
+
+    public RefreshOutcome(long intervalMillis,
+                          long durationMillis,
+                          int updateCount,
+                          int transactionCount,
+                          int pushQueueDepth,
+                          int listenerCount) {
+        this.intervalMillis = intervalMillis;
+        this.durationMillis = durationMillis;
+        this.updateCount = updateCount;
+        this.transactionCount = transactionCount;
+        this.pushQueueDepth = pushQueueDepth;
+        this.listenerCount = listenerCount;
+    }
+
+    /**
+     * Interval that was used before this refresh.
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * Number of transactions changed by this refresh.
+     */
+    public int getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Number of transactions in the repository after this refresh.
+     */
+    public int getTransactionCount() {
+        return transactionCount;
+    }
+
+    /**
+     * Number of UI deliveries waiting for a broadcaster thread after this
+     * refresh.
+     */
+    public int getPushQueueDepth() {
+        return pushQueueDepth;
+    }
+
+    /**
+     * Number of UIs listening to broadcasts after this refresh.
+     */
+    public int getListenerCount() {
+        return listenerCount;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.task;
+
+import com.m1kah.grid.data.BatchResult;
+import com.m1kah.grid.data.Mutation;
+import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionRepository;
+import com.m1kah.grid.metrics.PushMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Subscriber that applies streamed transactions to the repository in
+ * micro-batches. A batch is flushed when it reaches batch size or when
+ * the batch interval passes, whichever comes first. Ids of the
+ * transactions in a batch are reported to done listener once per batch.
+ *
+ * At most capacity transactions are requested ahead, more are requested
+ * only after earlier ones have been flushed.
+ *
+ * A refresh subscribes once. After the source fails, or the refresh is
+ * cancelled, it stays stopped and a new refresh has to subscribe again.
+ */
+class StreamingRefresh implements TransactionSource.Subscriber {
+    private final TaskDoneListener doneListener;
+    private final TaskFailListener failListener;
+    private final int capacity;
+    private final int batchSize;
+    private final long batchMillis;
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    private final ConcurrentLinkedQueue<Transaction> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger buffered = new AtomicInteger();
+    private volatile TransactionSource.Subscription subscription;
+    private volatile boolean failed;
+
+    StreamingRefresh(
+            TaskDoneListener doneListener,
+            TaskFailListener failListener,
+            int capacity,
+            int batchSize,
+            long batchMillis) {
+        this.doneListener = doneListener;
+        this.failListener = failListener;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.batchMillis = batchMillis;
+    }
+
+    @Override
+    public void onSubscribe(TransactionSource.Subscription subscription) {
+        this.subscription = subscription;
+        executorService.scheduleWithFixedDelay(this::flush, batchMillis, batchMillis, TimeUnit.MILLISECONDS);
+        subscription.request(capacity);
+    }
+
+    @Override
+    public void onNext(Transaction transaction) {
+        buffer.add(transaction);
+        if (buffered.incrementAndGet() == batchSize) {
+            try {
+                executorService.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // Cancelled, nothing to flush to.
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        failed = true;
+        failListener.onTaskFail(t);
+        stop();
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            executorService.execute(this::flush);
+        } catch (RejectedExecutionException e) {
+            // Already stopped.
+        }
+        stop();
+    }
+
+    /**
+     * Cancels subscription and stops flushing.
+     */
+    void cancel() {
+        TransactionSource.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+        stop();
+    }
+
+    /**
+     * Whether source has failed and this refresh has stopped.
+     */
+    boolean isFailed() {
+        return failed;
+    }
+
+    private void stop() {
+        executorService.shutdown();
+    }
+
+    private void flush() {
+        do {
+            flushBatch();
+        } while (buffered.get() >= batchSize);
+    }
+
+    private void flushBatch() {
+        List<Transaction> batch = new ArrayList<>();
+        Transaction transaction;
+        while (batch.size() < batchSize && (transaction = buffer.poll()) != null) {
+            batch.add(transaction);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        buffered.addAndGet(-batch.size());
+        long started = System.nanoTime();
+        try {
+            List<Mutation> mutations = new ArrayList<>(batch.size());
+            for (Transaction t : batch) {
+                mutations.add(Mutation.upsert(t));
+            }
+            BatchResult result = TransactionRepository.get().applyBatch(mutations);
+            PushMetrics.REFRESH_DURATION.record(System.nanoTime() - started);
+            PushMetrics.REFRESH_UPDATES.record(result.getIds().cardinality());
+            doneListener.onTaskDone(result);
+        } catch (RuntimeException e) {
+            failListener.onTaskFail(e);
+        } finally {
+            subscription.request(batch.size());
+        }
+    }
+}
@@ -22,9 +22,12 @@
 
 package com.m1kah.grid.task;
 
-import java.util.List;
+import com.m1kah.grid.data.BatchResult;
 
 @FunctionalInterface
 public interface TaskDoneListener {
-    void onTaskDone(List<String> updatedTransactionIds);
+    /**
+     * @param result what the task changed in the repository
+     */
+    void onTaskDone(BatchResult result);
 }
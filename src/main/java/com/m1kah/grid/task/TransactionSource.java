@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.task;
+
+import com.m1kah.grid.data.Transaction;
+
+/**
+ * Source that pushes transaction updates as they happen instead of being
+ * polled.
+ *
+ * The contract follows reactive streams: a subscriber asks for a number
+ * of transactions with {@link Subscription#request(long)} and the source
+ * never sends more than has been requested. That keeps the number of
+ * transactions in flight bounded when the pipeline falls behind.
+ */
+public interface TransactionSource {
+    /**
+     * Starts sending transactions to subscriber. Called again with a new
+     * subscriber after the previous one has cancelled or failed.
+     */
+    void subscribe(Subscriber subscriber);
+
+    interface Subscriber {
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called with a new or updated transaction.
+         */
+        void onNext(Transaction transaction);
+
+        void onError(Throwable t);
+
+        void onComplete();
+    }
+
+    interface Subscription {
+        void request(long count);
+
+        void cancel();
+    }
+}
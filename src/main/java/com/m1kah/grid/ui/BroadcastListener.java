@@ -22,10 +22,23 @@
 
 package com.m1kah.grid.ui;
 
+import com.m1kah.grid.data.TransactionAggregates;
+import com.m1kah.grid.data.TransactionField;
+
 import java.io.Serializable;
-import java.util.List;
+import java.util.BitSet;
+import java.util.Set;
 
 @FunctionalInterface
 public interface BroadcastListener extends Serializable {
-    void onTransactionDataUpdate(List<String> updatedTransactionIds);
+    /**
+     * @param updatedTransactionIds repository ids of changed transactions,
+     *                              must not be modified
+     * @param changedFields fields changed in any of the transactions,
+     *                      must not be modified
+     * @param aggregates totals after the latest change in this update
+     */
+    void onTransactionDataUpdate(BitSet updatedTransactionIds,
+                                 Set<TransactionField> changedFields,
+                                 TransactionAggregates aggregates);
 }
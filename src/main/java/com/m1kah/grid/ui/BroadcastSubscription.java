@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.ui;
+
+import com.vaadin.shared.Registration;
+
+/**
+ * Registration of a broadcast listener whose interest can be changed
+ * while it is registered. Watching and unwatching single ids is cheap,
+ * so a UI can follow the rows it shows as the user scrolls.
+ */
+public interface BroadcastSubscription extends Registration {
+    /**
+     * Replaces interest of the listener.
+     */
+    void setInterest(Interest interest);
+
+    /**
+     * Adds an id to the ids the listener is interested in.
+     */
+    void watch(int transactionId);
+
+    /**
+     * Removes an id from the ids the listener is interested in.
+     */
+    void unwatch(int transactionId);
+}
@@ -22,14 +22,18 @@
 
 package com.m1kah.grid.ui;
 
+import com.m1kah.grid.data.BatchResult;
+import com.m1kah.grid.data.TransactionAggregates;
+import com.m1kah.grid.data.TransactionField;
+import com.m1kah.grid.data.TransactionRepository;
+import com.m1kah.grid.metrics.PushMetrics;
+import com.vaadin.shared.Registration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Broadcaster {
     private static final Logger logger = LoggerFactory.getLogger(Broadcaster.class);
@@ -40,32 +44,161 @@ public class Broadcaster {
      *
      * Each browser tab and window is an UI object. We can update everyone
      * who is connected to the server by iterating through UI objects.
+     *
+     * Iteration does not lock and never fails even if UIs are added or
+     * removed at the same time. Each listener is removed with the
+     * registration returned when it was added.
+     */
+    private static final Set<PushQueue> listeners = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Which listeners want to hear about which transactions.
      */
-    private static final List<BroadcastListener> listeners = Collections.synchronizedList(new ArrayList<>());
+    private static final SubscriptionIndex subscriptions = new SubscriptionIndex();
 
     /**
      * {@see https://vaadin.com/docs/-/part/framework/advanced/advanced-push.html}
      */
-    private static final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private static final PushDispatcher dispatcher = PushDispatcher.fromSystemProperties();
 
-    public static void notifyUis(List<String> updatedTransactionIds) {
-        for (BroadcastListener listener : listeners) {
-            executorService.execute(() -> listener.onTransactionDataUpdate(updatedTransactionIds));
-        }
-        logger.debug("Notified {} broadcast listeners", listeners.size());
+    /**
+     * Notifies listeners interested in transactions changed by a batch.
+     * Listeners interested in everything share the batch's bitset.
+     * Changed fields and totals after the batch are shared by all
+     * listeners.
+     */
+    public static void notifyUis(BatchResult result) {
+        long started = System.nanoTime();
+        TransactionRepository repository = TransactionRepository.get();
+        Set<TransactionField> changedFields = result.getChangedFields();
+        TransactionAggregates aggregates = result.getAggregates();
+        int notified = subscriptions.match(
+                result.getIds(),
+                result.getInsertedIds(),
+                result.changesAggregates(),
+                repository::find,
+                (queue, ids) -> dispatcher.dispatch(queue, ids, changedFields, aggregates));
+        PushMetrics.BROADCAST_FAN_OUT.record(System.nanoTime() - started);
+        logger.debug("Notified {} of {} broadcast listeners", notified, listeners.size());
+    }
+
+    /**
+     * Adds listener that hears about every change.
+     */
+    public static Registration addBroadcastListener(BroadcastListener listener) {
+        return addBroadcastListener(listener, Interest.all());
     }
 
-    public static void addBroadcastListener(BroadcastListener listener) {
-        listeners.add(listener);
+    /**
+     * Adds listener that hears about changes it is interested in. Interest
+     * can be changed later with the returned subscription.
+     */
+    public static BroadcastSubscription addBroadcastListener(BroadcastListener listener, Interest interest) {
+        Subscription subscription = new Subscription(new PushQueue(listener));
+        subscription.setInterest(interest);
+        listeners.add(subscription.queue);
         logger.info("Broadcast listener added: {}", listener);
+        return subscription;
+    }
+
+    private static void removeBroadcastListener(Subscription subscription) {
+        if (listeners.remove(subscription.queue)) {
+            subscription.setInterest(Interest.ids(new BitSet()));
+            subscription.queue.close();
+            logger.info("Broadcast listener removed: {}", subscription.queue.getListener());
+        }
     }
 
-    public static void removeBroadcastListener(BroadcastListener listener) {
-        listeners.remove(listener);
-        logger.info("Broadcast listener removed: {}", listener);
+    /**
+     * Keeps track of what a listener has in the index so that it can be
+     * taken out again.
+     */
+    private static class Subscription implements BroadcastSubscription {
+        private final PushQueue queue;
+        private final BitSet ids = new BitSet();
+
+        Subscription(PushQueue queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public synchronized void setInterest(Interest interest) {
+            for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                subscriptions.unwatch(queue, id);
+            }
+            ids.clear();
+            BitSet wanted = interest.getIds();
+            for (int id = wanted.nextSetBit(0); id >= 0; id = wanted.nextSetBit(id + 1)) {
+                watch(id);
+            }
+            subscriptions.watchAll(queue, interest.isAll());
+            subscriptions.watchInserts(queue, interest.isInserts());
+            subscriptions.watchAggregates(queue, interest.isAggregates());
+            subscriptions.watchMatching(queue, interest.getPredicate());
+        }
+
+        @Override
+        public synchronized void watch(int transactionId) {
+            if (!ids.get(transactionId)) {
+                ids.set(transactionId);
+                subscriptions.watch(queue, transactionId);
+            }
+        }
+
+        @Override
+        public synchronized void unwatch(int transactionId) {
+            if (ids.get(transactionId)) {
+                ids.clear(transactionId);
+                subscriptions.unwatch(queue, transactionId);
+            }
+        }
+
+        @Override
+        public void remove() {
+            removeBroadcastListener(this);
+        }
+    }
+
+    /**
+     * Number of notifications that were merged into an update that was
+     * still waiting for, or being handled by, its listener.
+     */
+    public static long getCoalescedUpdateCount() {
+        return dispatcher.getCoalescedUpdateCount();
+    }
+
+    /**
+     * Number of times a listener has been moved to the slow lane.
+     */
+    public static long getDemotionCount() {
+        return dispatcher.getDemotionCount();
+    }
+
+    /**
+     * Number of listener deliveries waiting for a dispatcher thread.
+     */
+    public static int getPushQueueDepth() {
+        return dispatcher.getQueueDepth();
+    }
+
+    public static int getListenerCount() {
+        return listeners.size();
+    }
+
+    /**
+     * Number of updated ids waiting to be delivered, summed over all
+     * listeners. Takes time proportional to the number of listeners.
+     */
+    public static long getPendingUpdateCount() {
+        long pending = 0;
+        for (PushQueue queue : listeners) {
+            pending += queue.pendingCount();
+        }
+        return pending;
     }
 
     public static void cancelUpdates() {
-        executorService.shutdown();
+        dispatcher.shutdown();
+        FlushThrottle.shutdown();
     }
 }
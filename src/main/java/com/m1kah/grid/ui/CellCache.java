@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.ui;
+
+import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionField;
+import com.m1kah.grid.data.TransactionRepository;
+import com.vaadin.data.ValueProvider;
+import com.vaadin.data.provider.DataGenerator;
+import elemental.json.JsonObject;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cell values of rows on the client, by the field each column shows.
+ *
+ * Refreshing a row runs every column's value provider again. Values of
+ * fields that did not change are taken from here instead, so for example
+ * update time is not formatted again when only the amount moved. Values
+ * are dropped when their field changes and when the row leaves the
+ * client.
+ *
+ * All methods are called while holding the session lock.
+ */
+class CellCache implements DataGenerator<Transaction> {
+    private static final int FIELD_COUNT = TransactionField.values().length;
+    private final Map<Integer, Object[]> rows = new HashMap<>();
+
+    /**
+     * Wraps value provider of a column showing given field.
+     */
+    <V> ValueProvider<Transaction, V> cached(TransactionField field, ValueProvider<Transaction, V> provider) {
+        return transaction -> {
+            int id = TransactionRepository.get().idOf(transaction.getName());
+            if (id < 0) {
+                return provider.apply(transaction);
+            }
+            Object[] cells = rows.computeIfAbsent(id, key -> new Object[FIELD_COUNT]);
+            @SuppressWarnings("unchecked")
+            V value = (V) cells[field.ordinal()];
+            if (value == null) {
+                value = provider.apply(transaction);
+                cells[field.ordinal()] = value;
+            }
+            return value;
+        };
+    }
+
+    /**
+     * Drops values of changed fields of a row.
+     */
+    void invalidate(int transactionId, Set<TransactionField> changedFields) {
+        Object[] cells = rows.get(transactionId);
+        if (cells != null) {
+            for (TransactionField field : changedFields) {
+                cells[field.ordinal()] = null;
+            }
+        }
+    }
+
+    /**
+     * Drops values of given fields of each row. Takes time proportional to
+     * the number of cached rows.
+     */
+    void invalidate(BitSet transactionIds, Set<TransactionField> changedFields) {
+        for (Map.Entry<Integer, Object[]> row : rows.entrySet()) {
+            if (transactionIds.get(row.getKey())) {
+                for (TransactionField field : changedFields) {
+                    row.getValue()[field.ordinal()] = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void generateData(Transaction transaction, JsonObject jsonObject) {
+        // Values are cached by column value providers.
+    }
+
+    @Override
+    public void destroyData(Transaction transaction) {
+        rows.remove(TransactionRepository.get().idOf(transaction.getName()));
+    }
+
+    @Override
+    public void destroyAllData() {
+        rows.clear();
+    }
+}
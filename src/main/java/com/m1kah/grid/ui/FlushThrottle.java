@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.ui;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits how often a UI flushes updates to its client. Flush requests
+ * made within the interval after previous flush are merged into one
+ * flush at the end of the interval.
+ */
+class FlushThrottle {
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "grid-push-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Runnable flush;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile long intervalNanos;
+    private volatile long lastFlushNanos;
+    private volatile ScheduledFuture<?> pending;
+    private volatile boolean cancelled;
+
+    FlushThrottle(Runnable flush, long intervalMillis) {
+        this.flush = flush;
+        setIntervalMillis(intervalMillis);
+        this.lastFlushNanos = System.nanoTime() - intervalNanos;
+    }
+
+    void setIntervalMillis(long intervalMillis) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    long getIntervalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+    }
+
+    /**
+     * Flushes on calling thread if interval has passed, otherwise makes
+     * sure a flush has been scheduled.
+     */
+    void request() {
+        if (cancelled || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long delayNanos = lastFlushNanos + intervalNanos - System.nanoTime();
+        if (delayNanos <= 0) {
+            run();
+            return;
+        }
+        try {
+            pending = scheduler.schedule(this::run, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);
+        }
+    }
+
+    /**
+     * Drops a scheduled flush and ignores later requests.
+     */
+    void cancel() {
+        cancelled = true;
+        ScheduledFuture<?> future = pending;
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    private void run() {
+        // Cleared before flushing so that requests made during the flush
+        // schedule another one.
+        scheduled.set(false);
+        if (cancelled) {
+            return;
+        }
+        lastFlushNanos = System.nanoTime();
+        flush.run();
+    }
+
+    static void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -23,29 +23,77 @@
 package com.m1kah.grid.ui;
 
 import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionAggregates;
+import com.m1kah.grid.data.TransactionChange;
+import com.m1kah.grid.data.TransactionField;
 import com.m1kah.grid.data.TransactionRepository;
+import com.m1kah.grid.data.UpdateTimeFormat;
+import com.m1kah.grid.metrics.PushMetrics;
 import com.vaadin.annotations.Push;
-import com.vaadin.data.provider.ListDataProvider;
+import com.vaadin.data.provider.GridSortOrder;
+import com.vaadin.shared.communication.PushMode;
 import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.WebBrowser;
 import com.vaadin.ui.Grid;
 import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
 import com.vaadin.ui.VerticalLayout;
+import com.vaadin.ui.components.grid.FooterRow;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-@Push
+/**
+ * UI pushes changes manually at most once per flush interval, so number
+ * of push messages per client stays bounded however fast data changes.
+ * Interval is read from request parameter flushIntervalMillis or system
+ * property grid.push.flushIntervalMillis. Intervals shorter than system
+ * property grid.push.minFlushIntervalMillis are raised to it, so a
+ * client can not ask for a push on every change.
+ */
+@Push(PushMode.MANUAL)
 public class GridUi extends UI implements BroadcastListener {
     private static final Logger logger = LoggerFactory.getLogger(GridUi.class);
+    private static final long MIN_FLUSH_INTERVAL_MILLIS = Long.getLong("grid.push.minFlushIntervalMillis", 50);
+    private static final long MAX_FLUSH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long FLUSH_INTERVAL_MILLIS = Long.getLong("grid.push.flushIntervalMillis", 250);
     private Grid<Transaction> grid;
     private VerticalLayout container;
-    private ListDataProvider<Transaction> dataProvider;
-    private List<Transaction> dataList;
+    private TransactionDataProvider dataProvider;
+    private int rowCount;
+    private long appliedVersion;
+    private VisibleRows visibleRows;
+    private CellCache cellCache;
+    private UpdateTimeFormat updateTimeFormat;
+    private Grid.Column<Transaction, String> nameColumn;
+    private Grid.Column<Transaction, ?> amountColumn;
+    private FooterRow footer;
+    private TransactionAggregates shownAggregates;
+    private transient BroadcastSubscription broadcastSubscription;
+    /**
+     * Ids, fields and totals notified since previous flush. Written by
+     * dispatcher threads, so guarded by the bitset itself.
+     */
+    private final BitSet notifiedIds = new BitSet();
+    private final EnumSet<TransactionField> notifiedFields = EnumSet.noneOf(TransactionField.class);
+    private TransactionAggregates notifiedAggregates;
+    private transient FlushThrottle flushThrottle;
 
     @Override
     protected void init(VaadinRequest request) {
+        initFlushThrottle(request);
+        initUpdateTimeFormat();
         initGrid();
         initContainer();
         initData();
@@ -56,19 +104,110 @@ public class GridUi extends UI implements BroadcastListener {
 
     @Override
     public void detach() {
-        Broadcaster.removeBroadcastListener(this);
+        if (flushThrottle != null) {
+            flushThrottle.cancel();
+        }
+        if (broadcastSubscription != null) {
+            visibleRows.setSubscription(null);
+            broadcastSubscription.remove();
+            broadcastSubscription = null;
+        }
         super.detach();
     }
 
     private void initReceiveData() {
-        Broadcaster.addBroadcastListener(this);
+        broadcastSubscription = Broadcaster.addBroadcastListener(this, interest());
+        visibleRows.setSubscription(broadcastSubscription);
+    }
+
+    /**
+     * UI only needs to hear about rows on the client, new rows and
+     * changed totals, unless sort order depends on data that changes.
+     * Then any update may move a row into the viewport.
+     */
+    private Interest interest() {
+        return dataProvider.isSortedByChangingField()
+                ? Interest.all()
+                : visibleRows.interest().withAggregates();
+    }
+
+    private void onSortChange() {
+        if (broadcastSubscription != null) {
+            broadcastSubscription.setInterest(interest());
+        }
+    }
+
+    /**
+     * Data provider sorts by one column only. Sorting by another column
+     * replaces the previous sort order so that grid shows the order rows
+     * are in.
+     */
+    private void onSort(List<GridSortOrder<Transaction>> sortOrder) {
+        if (sortOrder.size() > 1) {
+            grid.setSortOrder(Collections.singletonList(sortOrder.get(sortOrder.size() - 1)));
+        }
+    }
+
+    private void initFlushThrottle(VaadinRequest request) {
+        long intervalMillis = FLUSH_INTERVAL_MILLIS;
+        String parameter = request.getParameter("flushIntervalMillis");
+        if (parameter != null) {
+            try {
+                intervalMillis = Long.parseLong(parameter.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Ignored invalid flushIntervalMillis: {}", parameter);
+            }
+        }
+        flushThrottle = new FlushThrottle(this::flush, clampFlushInterval(intervalMillis));
+    }
+
+    /**
+     * Sets shortest time between pushes to this UI's client. Interval is
+     * kept between grid.push.minFlushIntervalMillis and one minute.
+     */
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        flushThrottle.setIntervalMillis(clampFlushInterval(flushIntervalMillis));
+    }
+
+    private static long clampFlushInterval(long intervalMillis) {
+        return Math.min(MAX_FLUSH_INTERVAL_MILLIS, Math.max(MIN_FLUSH_INTERVAL_MILLIS, intervalMillis));
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushThrottle.getIntervalMillis();
     }
 
     private void initData() {
-        dataList = new ArrayList<>(TransactionRepository.get().findAll());
-        dataProvider = new ListDataProvider<>(dataList);
+        dataProvider = new TransactionDataProvider();
+        dataProvider.setSortChangeListener(changing -> onSortChange());
+        appliedVersion = TransactionRepository.get().currentVersion();
+        rowCount = TransactionRepository.get().count();
         grid.setDataProvider(dataProvider);
         updateCaption();
+        updateFooter(TransactionRepository.get().aggregates());
+    }
+
+    private void initUpdateTimeFormat() {
+        Locale locale = getLocale() != null ? getLocale() : Locale.ENGLISH;
+        updateTimeFormat = UpdateTimeFormat.get(browserZone(), locale);
+    }
+
+    /**
+     * Browser's time zone, or its current offset when the zone id is not
+     * known. The offset does not follow daylight saving changes.
+     */
+    private ZoneId browserZone() {
+        WebBrowser browser = getPage().getWebBrowser();
+        try {
+            // WebBrowser.getTimeZoneId() is available from Vaadin 8.2 on.
+            Object zoneId = WebBrowser.class.getMethod("getTimeZoneId").invoke(browser);
+            if (zoneId != null) {
+                return ZoneId.of(zoneId.toString());
+            }
+        } catch (ReflectiveOperationException | DateTimeException e) {
+            logger.debug("Browser time zone id not available", e);
+        }
+        return ZoneOffset.ofTotalSeconds(browser.getTimezoneOffset() / 1000);
     }
 
     private void initContainer() {
@@ -80,42 +219,168 @@ public class GridUi extends UI implements BroadcastListener {
     private void initGrid() {
         grid = new Grid<>("Example Grid");
         grid.setHeightByRows(8);
-        grid.addColumn(Transaction::getName)
-                .setCaption("Name");
-        grid.addColumn(Transaction::getAmount)
-                .setCaption("Amount");
-        grid.addColumn(Transaction::formattedUpdateTime)
-                .setCaption("Updated");
+        visibleRows = new VisibleRows();
+        cellCache = new CellCache();
+        grid.getDataCommunicator().addDataGenerator(visibleRows);
+        grid.getDataCommunicator().addDataGenerator(cellCache);
+        nameColumn = grid.addColumn(cellCache.cached(TransactionField.NAME, Transaction::getName))
+                .setCaption("Name")
+                .setSortProperty(TransactionDataProvider.sortProperty(TransactionField.NAME));
+        amountColumn = grid.addColumn(cellCache.cached(TransactionField.AMOUNT, Transaction::getAmount))
+                .setCaption("Amount")
+                .setSortProperty(TransactionDataProvider.sortProperty(TransactionField.AMOUNT));
+        grid.addColumn(cellCache.cached(
+                TransactionField.UPDATED,
+                transaction -> transaction.formattedUpdateTime(updateTimeFormat)))
+                .setCaption("Updated")
+                .setSortProperty(TransactionDataProvider.sortProperty(TransactionField.UPDATED));
+        grid.addSortListener(event -> onSort(event.getSortOrder()));
+        footer = grid.appendFooterRow();
+        footer.getCell(nameColumn).setText("Total");
     }
 
     @Override
-    public void onTransactionDataUpdate(List<String> updatedTransactionIds) {
-        access(() -> {
-            // This code is executed by a background thread (which has delegated
-            // updated to thread owned by broadcaster). We are only refreshing
-            // updated rows or adding new rows for new data. Another option
-            // is to simply reload all data in the grid.
-            //
-            // If more logic is added here then only UIs that need updates
-            // can be updated. Maybe only some of the views need pushed
-            // updates. Maybe the updated data is not visible in the view.
-            // There are many options.
-            for (String updatedTransactionId : updatedTransactionIds) {
-                Transaction transaction = TransactionRepository.get().find(updatedTransactionId);
-                if (!dataList.contains(transaction)) {
-                    dataList.add(transaction);
-                    // This is needed to refresh the rows in grid. Otherwise it does
-                    // not notice that a new row has been added.
-                    grid.clearSortOrder();
-                    updateCaption();
-                } else {
-                    dataProvider.refreshItem(transaction);
-                }
+    public void onTransactionDataUpdate(BitSet updatedTransactionIds,
+                                        Set<TransactionField> changedFields,
+                                        TransactionAggregates aggregates) {
+        // Changes are read from repository's change log when flushing, so
+        // notifications arriving within flush interval only need to make
+        // sure a flush happens. Notified ids are kept for when the log no
+        // longer reaches back far enough. Totals come with the
+        // notification, so the footer shows the ones of the batch that
+        // was notified, and only the newest of them is kept.
+        boolean flush = !changedFields.isEmpty();
+        synchronized (notifiedIds) {
+            notifiedIds.or(updatedTransactionIds);
+            notifiedFields.addAll(changedFields);
+            if (notifiedAggregates == null || aggregates.getVersion() > notifiedAggregates.getVersion()) {
+                notifiedAggregates = aggregates;
+                flush = true;
+            }
+        }
+        if (flush) {
+            flushThrottle.request();
+        }
+    }
+
+    private void flush() {
+        // A flush scheduled before the UI was detached has nothing to
+        // push to.
+        if (!isAttached()) {
+            return;
+        }
+        // Access runs on calling thread when session lock is free. If not,
+        // the thread holding the lock runs it, so flush thread never
+        // waits for a busy session.
+        long requested = System.nanoTime();
+        try {
+            access(() -> flushChanges(requested));
+        } catch (UIDetachedException e) {
+            logger.debug("UI detached before flush");
+        }
+    }
+
+    private void flushChanges(long requested) {
+        long started = System.nanoTime();
+        PushMetrics.ACCESS_WAIT.record(started - requested);
+        try {
+            BitSet updatedIds;
+            Set<TransactionField> updatedFields;
+            TransactionAggregates aggregates;
+            synchronized (notifiedIds) {
+                updatedIds = (BitSet) notifiedIds.clone();
+                notifiedIds.clear();
+                updatedFields = notifiedFields.clone();
+                notifiedFields.clear();
+                aggregates = notifiedAggregates;
+            }
+            // Changes are read from repository's change log starting
+            // from the last version this UI has applied, so each row
+            // knows which of its fields changed. If the log does not
+            // reach back that far, notified ids are refreshed with
+            // all notified fields instead.
+            Optional<List<TransactionChange>> changes = TransactionRepository.get().changesSince(appliedVersion);
+            if (changes.isPresent()) {
+                applyChanges(changes.get(), updatedIds, updatedFields);
+            } else {
+                appliedVersion = TransactionRepository.get().currentVersion();
+                cellCache.invalidate(updatedIds, updatedFields);
+                applyUpdates(updatedIds);
             }
-        });
+            updateFooter(aggregates);
+            // Everything changed since previous flush goes to client
+            // in one push.
+            push();
+            PushMetrics.PUSHES.increment();
+        } finally {
+            PushMetrics.ACCESS_EXECUTION.record(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * @param notifiedIds ids notified since previous flush. Ids not in
+     *                    the changes come from changes this UI has
+     *                    already passed by version, but not seen yet.
+     */
+    private void applyChanges(List<TransactionChange> changes, BitSet notifiedIds, Set<TransactionField> notifiedFields) {
+        BitSet updatedIds = new BitSet();
+        // Cells of unchanged fields keep their values when rows are
+        // refreshed.
+        for (TransactionChange change : changes) {
+            cellCache.invalidate(change.getId(), change.getChangedFields());
+            updatedIds.set(change.getId());
+        }
+        notifiedIds.andNot(updatedIds);
+        cellCache.invalidate(notifiedIds, notifiedFields);
+        updatedIds.or(notifiedIds);
+        if (!changes.isEmpty()) {
+            appliedVersion = changes.get(changes.size() - 1).getVersion();
+        }
+        applyUpdates(updatedIds);
+    }
+
+    private void applyUpdates(BitSet updatedIds) {
+        if (updatedIds.isEmpty()) {
+            return;
+        }
+        int count = TransactionRepository.get().count();
+        if (count != rowCount) {
+            // New rows have been added. Grid needs to fetch the row count
+            // and current page again. Sort order is kept.
+            rowCount = count;
+            dataProvider.refreshAll();
+            updateCaption();
+            return;
+        }
+        if (dataProvider.isSortedByChangingField()) {
+            // Updated rows may have moved in or out of the viewport.
+            // Fetching the page from sorted index is cheap.
+            dataProvider.refreshAll();
+            return;
+        }
+        // Rows that are not on the client are not refreshed. Grid
+        // generates them with current data when user scrolls to them.
+        for (Transaction transaction : TransactionRepository.get().findAll(visibleRows.acceptUpdates(updatedIds))) {
+            dataProvider.refreshItem(transaction);
+        }
+    }
+
+    /**
+     * Shows totals. Nothing is sent to client if they are not newer than
+     * the ones shown.
+     */
+    private void updateFooter(TransactionAggregates aggregates) {
+        if (aggregates == null) {
+            return;
+        }
+        if (shownAggregates == null || aggregates.getVersion() > shownAggregates.getVersion()) {
+            shownAggregates = aggregates;
+            footer.getCell(amountColumn).setText(
+                    aggregates.getSum() + " (min " + aggregates.getMin() + ", max " + aggregates.getMax() + ")");
+        }
     }
 
     private void updateCaption() {
-        grid.setCaption("Example Grid with " + dataList.size() + " precious stones");
+        grid.setCaption("Example Grid with " + rowCount + " precious stones");
     }
 }
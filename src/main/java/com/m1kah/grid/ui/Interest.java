@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.ui;
+
+import com.m1kah.grid.data.Transaction;
+
+import java.util.BitSet;
+import java.util.function.Predicate;
+
+/**
+ * Transactions a broadcast listener wants to hear about.
+ *
+ * Interest in ids is indexed by id, so notifying costs nothing for
+ * listeners whose ids did not change. Interest in all transactions and
+ * interest by predicate are checked on every notification, so they are
+ * meant for a few listeners only.
+ */
+public final class Interest {
+    private static final Interest ALL = new Interest(true, new BitSet(), null, true, true);
+    private final boolean all;
+    private final BitSet ids;
+    private final Predicate<Transaction> predicate;
+    private final boolean inserts;
+    private final boolean aggregates;
+
+    private Interest(boolean all,
+                     BitSet ids,
+                     Predicate<Transaction> predicate,
+                     boolean inserts,
+                     boolean aggregates) {
+        this.all = all;
+        this.ids = ids;
+        this.predicate = predicate;
+        this.inserts = inserts;
+        this.aggregates = aggregates;
+    }
+
+    /**
+     * Every change, including new transactions.
+     */
+    public static Interest all() {
+        return ALL;
+    }
+
+    /**
+     * Changes to transactions with given repository ids.
+     */
+    public static Interest ids(BitSet ids) {
+        return new Interest(false, (BitSet) ids.clone(), null, false, false);
+    }
+
+    /**
+     * Changes to transactions that match predicate after the change.
+     */
+    public static Interest matching(Predicate<Transaction> predicate) {
+        return new Interest(false, new BitSet(), predicate, false, false);
+    }
+
+    /**
+     * Same interest and new transactions too.
+     */
+    public Interest withInserts() {
+        return new Interest(all, ids, predicate, true, aggregates);
+    }
+
+    /**
+     * Same interest and changes to the totals too, even when none of the
+     * changed transactions are of interest.
+     */
+    public Interest withAggregates() {
+        return new Interest(all, ids, predicate, inserts, true);
+    }
+
+    boolean isAll() {
+        return all;
+    }
+
+    BitSet getIds() {
+        return ids;
+    }
+
+    Predicate<Transaction> getPredicate() {
+        return predicate;
+    }
+
+    boolean isInserts() {
+        return inserts;
+    }
+
+    boolean isAggregates() {
+        return aggregates;
+    }
+}
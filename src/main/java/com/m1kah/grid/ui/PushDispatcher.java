@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.ui;
+
+import com.m1kah.grid.data.TransactionAggregates;
+import com.m1kah.grid.data.TransactionField;
+import com.m1kah.grid.metrics.PushMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers pending updates to broadcast listeners using a pool of worker
+ * threads.
+ *
+ * Each listener has at most one delivery running at a time (see
+ * {@link PushQueue}) so listeners receive updates in order while different
+ * listeners are updated in parallel. A listener that repeatedly takes
+ * longer than the timeout, or that has more pending ids than the backlog
+ * limit, is demoted. Demoted listeners are updated at a lower rate on
+ * their own small pool so they can not hold up healthy UIs. A demoted
+ * listener is promoted back after it has handled enough updates in time.
+ *
+ * Listener calls are not interrupted. The timeout only decides whether a
+ * delivery counts as slow.
+ */
+class PushDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(PushDispatcher.class);
+    private final ThreadPoolExecutor workers;
+    private final ThreadPoolExecutor slowWorkers;
+    private final ScheduledThreadPoolExecutor delayed;
+    private final long timeoutNanos;
+    private final int backlogLimit;
+    private final int strikeLimit;
+    private final long demotedIntervalMillis;
+    private final AtomicLong coalescedUpdates = new AtomicLong();
+    private final AtomicLong demotions = new AtomicLong();
+
+    PushDispatcher(int workerCount,
+                   int slowWorkerCount,
+                   long timeoutMillis,
+                   int backlogLimit,
+                   int strikeLimit,
+                   long demotedIntervalMillis) {
+        this.workers = fixedThreadPool(workerCount, "push-worker");
+        this.slowWorkers = fixedThreadPool(slowWorkerCount, "push-slow-worker");
+        this.delayed = new ScheduledThreadPoolExecutor(1, threadFactory("push-delay"));
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.backlogLimit = backlogLimit;
+        this.strikeLimit = strikeLimit;
+        this.demotedIntervalMillis = demotedIntervalMillis;
+    }
+
+    /**
+     * Creates dispatcher configured with system properties:
+     * <ul>
+     *     <li>grid.push.workers, number of worker threads</li>
+     *     <li>grid.push.slowWorkers, number of threads for demoted listeners</li>
+     *     <li>grid.push.timeoutMillis, delivery time after which listener is slow</li>
+     *     <li>grid.push.backlogLimit, pending ids after which listener is demoted</li>
+     *     <li>grid.push.strikeLimit, slow deliveries in a row before demotion</li>
+     *     <li>grid.push.demotedIntervalMillis, update interval of demoted listeners</li>
+     * </ul>
+     */
+    static PushDispatcher fromSystemProperties() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return new PushDispatcher(
+                Integer.getInteger("grid.push.workers", Math.max(4, processors * 2)),
+                Integer.getInteger("grid.push.slowWorkers", 2),
+                Long.getLong("grid.push.timeoutMillis", 1000),
+                Integer.getInteger("grid.push.backlogLimit", 10000),
+                Integer.getInteger("grid.push.strikeLimit", 3),
+                Long.getLong("grid.push.demotedIntervalMillis", 5000));
+    }
+
+    void dispatch(PushQueue queue,
+                  BitSet updatedTransactionIds,
+                  Set<TransactionField> changedFields,
+                  TransactionAggregates aggregates) {
+        if (queue.offer(updatedTransactionIds, changedFields, aggregates)) {
+            schedule(queue);
+        } else {
+            coalescedUpdates.incrementAndGet();
+            if (!queue.isDemoted() && queue.pendingCount() > backlogLimit) {
+                demote(queue);
+            }
+        }
+    }
+
+    private void schedule(PushQueue queue) {
+        try {
+            if (queue.isDemoted()) {
+                delayed.schedule(
+                        () -> execute(slowWorkers, queue),
+                        demotedIntervalMillis,
+                        TimeUnit.MILLISECONDS);
+            } else {
+                execute(workers, queue);
+            }
+        } catch (RejectedExecutionException e) {
+            logger.debug("Dispatcher is shut down, dropping update for {}", queue.getListener());
+            PushMetrics.DROPPED_UPDATES.add(queue.pendingCount());
+        }
+    }
+
+    private void execute(ExecutorService executor, PushQueue queue) {
+        try {
+            executor.execute(() -> deliver(queue));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Dispatcher is shut down, dropping update for {}", queue.getListener());
+            PushMetrics.DROPPED_UPDATES.add(queue.pendingCount());
+        }
+    }
+
+    private void deliver(PushQueue queue) {
+        long started = System.nanoTime();
+        boolean more = queue.drain();
+        boolean slow = System.nanoTime() - started > timeoutNanos;
+        if (queue.recordDelivery(slow, strikeLimit)) {
+            if (queue.isDemoted()) {
+                demotions.incrementAndGet();
+                logger.info("Broadcast listener demoted: {}", queue.getListener());
+            } else {
+                logger.info("Broadcast listener promoted: {}", queue.getListener());
+            }
+        }
+        if (more) {
+            schedule(queue);
+        }
+    }
+
+    private void demote(PushQueue queue) {
+        queue.demote();
+        demotions.incrementAndGet();
+        logger.info("Broadcast listener demoted, backlog over {}: {}", backlogLimit, queue.getListener());
+    }
+
+    long getCoalescedUpdateCount() {
+        return coalescedUpdates.get();
+    }
+
+    long getDemotionCount() {
+        return demotions.get();
+    }
+
+    /**
+     * Number of deliveries waiting for a worker thread.
+     */
+    int getQueueDepth() {
+        return workers.getQueue().size() + slowWorkers.getQueue().size() + delayed.getQueue().size();
+    }
+
+    void shutdown() {
+        delayed.shutdownNow();
+        workers.shutdown();
+        slowWorkers.shutdown();
+    }
+
+    private static ThreadPoolExecutor fixedThreadPool(int threads, String prefix) {
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                0,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                threadFactory(prefix));
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
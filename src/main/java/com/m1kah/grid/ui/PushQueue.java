@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.ui;
+
+import com.m1kah.grid.data.TransactionAggregates;
+import com.m1kah.grid.data.TransactionField;
+import com.m1kah.grid.metrics.PushMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Pending updates of a single broadcast listener.
+ *
+ * Updated transaction ids are merged into one pending set until the
+ * listener has finished handling its previous update. This way each
+ * listener has at most one update in flight and a slow listener only
+ * receives the latest set of changed rows instead of every intermediate
+ * one. Pending ids are a bitset, so merging an update is a bitwise or
+ * and the pending set can not grow beyond one bit per transaction no
+ * matter how many updates are merged. Changed fields of merged updates
+ * are merged the same way, and of their aggregates only the newest is
+ * kept. A listener interested in aggregates gets an update with no ids
+ * when only the totals changed.
+ */
+class PushQueue {
+    private static final Logger logger = LoggerFactory.getLogger(PushQueue.class);
+    private final BroadcastListener listener;
+    private final BitSet pending = new BitSet();
+    private final EnumSet<TransactionField> pendingFields = EnumSet.noneOf(TransactionField.class);
+    private TransactionAggregates latestAggregates;
+    private boolean aggregatesPending;
+    private boolean scheduled;
+    private volatile boolean demoted;
+    private volatile boolean closed;
+    // Only touched by the thread delivering updates, one at a time.
+    private int strikes;
+
+    PushQueue(BroadcastListener listener) {
+        this.listener = listener;
+    }
+
+    BroadcastListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Stops deliveries to listener. Pending ids are dropped.
+     */
+    void close() {
+        closed = true;
+    }
+
+    boolean isDemoted() {
+        return demoted;
+    }
+
+    void demote() {
+        demoted = true;
+    }
+
+    synchronized int pendingCount() {
+        return pending.cardinality();
+    }
+
+    /**
+     * Records outcome of a delivery. Listener is demoted after given number
+     * of slow deliveries in a row and promoted back after the same number
+     * of deliveries in time.
+     *
+     * @return true if listener was demoted or promoted
+     */
+    boolean recordDelivery(boolean slow, int strikeLimit) {
+        if (slow == demoted) {
+            strikes = 0;
+            return false;
+        }
+        if (++strikes < strikeLimit) {
+            return false;
+        }
+        demoted = slow;
+        strikes = 0;
+        return true;
+    }
+
+    /**
+     * Adds updated ids to pending set.
+     *
+     * @return true if caller needs to schedule {@link #drain()}, false if
+     * ids were merged into an update that is already scheduled or running
+     */
+    synchronized boolean offer(BitSet updatedTransactionIds,
+                               Set<TransactionField> changedFields,
+                               TransactionAggregates aggregates) {
+        pending.or(updatedTransactionIds);
+        pendingFields.addAll(changedFields);
+        if (latestAggregates == null || aggregates.getVersion() > latestAggregates.getVersion()) {
+            latestAggregates = aggregates;
+            aggregatesPending = true;
+        }
+        if (scheduled) {
+            return false;
+        }
+        scheduled = true;
+        return true;
+    }
+
+    /**
+     * Delivers pending ids to listener.
+     *
+     * @return true if more ids arrived while listener was busy and caller
+     * needs to schedule another drain
+     */
+    boolean drain() {
+        BitSet updatedTransactionIds;
+        Set<TransactionField> changedFields;
+        TransactionAggregates aggregates;
+        boolean newAggregates;
+        boolean more;
+        synchronized (this) {
+            updatedTransactionIds = (BitSet) pending.clone();
+            pending.clear();
+            changedFields = pendingFields.clone();
+            pendingFields.clear();
+            aggregates = latestAggregates;
+            newAggregates = aggregatesPending;
+            aggregatesPending = false;
+        }
+        try {
+            if (!closed && (!updatedTransactionIds.isEmpty() || newAggregates)) {
+                listener.onTransactionDataUpdate(updatedTransactionIds, changedFields, aggregates);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Broadcast listener failed: {}", listener, e);
+        } finally {
+            synchronized (this) {
+                if (closed) {
+                    PushMetrics.DROPPED_UPDATES.add(updatedTransactionIds.cardinality() + pending.cardinality());
+                    pending.clear();
+                    pendingFields.clear();
+                    aggregatesPending = false;
+                }
+                scheduled = !pending.isEmpty() || aggregatesPending;
+                more = scheduled;
+            }
+        }
+        return more;
+    }
+}
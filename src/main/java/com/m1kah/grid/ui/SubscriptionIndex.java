@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.ui;
+
+import com.m1kah.grid.data.Transaction;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * Finds the listeners interested in a set of changed transactions.
+ *
+ * Interest in ids is kept as an inverted index from id to listeners,
+ * so matching takes time proportional to the changed ids and their
+ * listeners, not to all listeners.
+ */
+class SubscriptionIndex {
+    private final Set<PushQueue> all = ConcurrentHashMap.newKeySet();
+    private final Set<PushQueue> inserts = ConcurrentHashMap.newKeySet();
+    private final Set<PushQueue> aggregates = ConcurrentHashMap.newKeySet();
+    private final Map<PushQueue, Predicate<Transaction>> predicates = new ConcurrentHashMap<>();
+    /**
+     * Listeners by id. Replaced with a larger copy under lock when an id
+     * does not fit. Sets are created under lock and never removed.
+     */
+    private volatile AtomicReferenceArray<Set<PushQueue>> byId = new AtomicReferenceArray<>(1024);
+
+    void watchAll(PushQueue queue, boolean watch) {
+        if (watch) {
+            all.add(queue);
+        } else {
+            all.remove(queue);
+        }
+    }
+
+    void watchInserts(PushQueue queue, boolean watch) {
+        if (watch) {
+            inserts.add(queue);
+        } else {
+            inserts.remove(queue);
+        }
+    }
+
+    void watchAggregates(PushQueue queue, boolean watch) {
+        if (watch) {
+            aggregates.add(queue);
+        } else {
+            aggregates.remove(queue);
+        }
+    }
+
+    void watchMatching(PushQueue queue, Predicate<Transaction> predicate) {
+        if (predicate != null) {
+            predicates.put(queue, predicate);
+        } else {
+            predicates.remove(queue);
+        }
+    }
+
+    void watch(PushQueue queue, int id) {
+        AtomicReferenceArray<Set<PushQueue>> current = byId;
+        Set<PushQueue> queues = current.length() > id ? current.get(id) : null;
+        if (queues == null) {
+            queues = createQueues(id);
+        }
+        queues.add(queue);
+    }
+
+    void unwatch(PushQueue queue, int id) {
+        AtomicReferenceArray<Set<PushQueue>> current = byId;
+        Set<PushQueue> queues = current.length() > id ? current.get(id) : null;
+        if (queues != null) {
+            queues.remove(queue);
+        }
+    }
+
+    private synchronized Set<PushQueue> createQueues(int id) {
+        AtomicReferenceArray<Set<PushQueue>> current = byId;
+        if (current.length() <= id) {
+            AtomicReferenceArray<Set<PushQueue>> larger = new AtomicReferenceArray<>(
+                    Math.max(current.length() * 2, id + 1));
+            for (int i = 0; i < current.length(); i++) {
+                larger.set(i, current.get(i));
+            }
+            byId = larger;
+            current = larger;
+        }
+        Set<PushQueue> queues = current.get(id);
+        if (queues == null) {
+            queues = ConcurrentHashMap.newKeySet();
+            current.set(id, queues);
+        }
+        return queues;
+    }
+
+    /**
+     * Passes each interested listener the ids it needs to hear about.
+     * Listeners interested in everything get the given bitset itself.
+     *
+     * @param changed ids of changed transactions
+     * @param inserted ids of transactions among changed ones that are new
+     * @param aggregatesChanged whether listeners interested in totals need
+     *                          an update even without any of their ids
+     * @param transactions finds transaction by id for predicates
+     * @return number of listeners notified
+     */
+    int match(BitSet changed,
+              BitSet inserted,
+              boolean aggregatesChanged,
+              IntFunction<Transaction> transactions,
+              BiConsumer<PushQueue, BitSet> notify) {
+        int notified = 0;
+        for (PushQueue queue : all) {
+            notify.accept(queue, changed);
+            notified++;
+        }
+        Map<PushQueue, BitSet> matches = new HashMap<>();
+        AtomicReferenceArray<Set<PushQueue>> current = byId;
+        for (int id = changed.nextSetBit(0); id >= 0 && id < current.length(); id = changed.nextSetBit(id + 1)) {
+            Set<PushQueue> queues = current.get(id);
+            if (queues != null) {
+                for (PushQueue queue : queues) {
+                    add(matches, queue, id);
+                }
+            }
+        }
+        if (!inserts.isEmpty()) {
+            for (int id = inserted.nextSetBit(0); id >= 0; id = inserted.nextSetBit(id + 1)) {
+                for (PushQueue queue : inserts) {
+                    add(matches, queue, id);
+                }
+            }
+        }
+        if (!predicates.isEmpty()) {
+            for (int id = changed.nextSetBit(0); id >= 0; id = changed.nextSetBit(id + 1)) {
+                Transaction transaction = transactions.apply(id);
+                if (transaction == null) {
+                    continue;
+                }
+                for (Map.Entry<PushQueue, Predicate<Transaction>> predicate : predicates.entrySet()) {
+                    if (predicate.getValue().test(transaction)) {
+                        add(matches, predicate.getKey(), id);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<PushQueue, BitSet> match : matches.entrySet()) {
+            // Listeners interested in everything were notified already.
+            if (!all.contains(match.getKey())) {
+                notify.accept(match.getKey(), match.getValue());
+                notified++;
+            }
+        }
+        if (aggregatesChanged) {
+            for (PushQueue queue : aggregates) {
+                if (!all.contains(queue) && !matches.containsKey(queue)) {
+                    notify.accept(queue, new BitSet());
+                    notified++;
+                }
+            }
+        }
+        return notified;
+    }
+
+    private static void add(Map<PushQueue, BitSet> matches, PushQueue queue, int id) {
+        BitSet ids = matches.get(queue);
+        if (ids == null) {
+            ids = new BitSet();
+            matches.put(queue, ids);
+        }
+        ids.set(id);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.ui;
+
+import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionField;
+import com.m1kah.grid.data.TransactionRepository;
+import com.vaadin.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.data.provider.Query;
+import com.vaadin.data.provider.QuerySortOrder;
+import com.vaadin.server.SerializableConsumer;
+import com.vaadin.shared.data.sort.SortDirection;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Data provider that fetches pages of transactions from the repository
+ * when grid asks for them. UIs do not copy the data so heap used by a UI
+ * does not depend on the number of transactions.
+ *
+ * Sort properties are names of {@link TransactionField} constants. Rows
+ * are served from the repository's sorted index by the first sort order.
+ * Sorting by several columns would need sorting all transactions for
+ * every page, so further sort orders are ignored.
+ */
+class TransactionDataProvider extends AbstractBackEndDataProvider<Transaction, Void> {
+    private boolean sortedByChangingField;
+    private SerializableConsumer<Boolean> sortChangeListener;
+
+    static String sortProperty(TransactionField field) {
+        return field.name();
+    }
+
+    @Override
+    protected Stream<Transaction> fetchFromBackEnd(Query<Transaction, Void> query) {
+        List<QuerySortOrder> sortOrders = query.getSortOrders();
+        boolean changing = !sortOrders.isEmpty() && toField(sortOrders.get(0)) != TransactionField.NAME;
+        if (changing != sortedByChangingField) {
+            sortedByChangingField = changing;
+            if (sortChangeListener != null) {
+                sortChangeListener.accept(changing);
+            }
+        }
+        TransactionRepository repository = TransactionRepository.get();
+        if (sortOrders.isEmpty()) {
+            return repository.findAll(query.getOffset(), query.getLimit()).stream();
+        }
+        QuerySortOrder sortOrder = sortOrders.get(0);
+        return repository.findAll(
+                query.getOffset(),
+                query.getLimit(),
+                toField(sortOrder),
+                sortOrder.getDirection() == SortDirection.ASCENDING).stream();
+    }
+
+    @Override
+    protected int sizeInBackEnd(Query<Transaction, Void> query) {
+        return TransactionRepository.get().count();
+    }
+
+    /**
+     * @return true if rows were last fetched in an order that changes when
+     * transactions are updated
+     */
+    boolean isSortedByChangingField() {
+        return sortedByChangingField;
+    }
+
+    /**
+     * Sets listener called with new value when
+     * {@link #isSortedByChangingField()} changes.
+     */
+    void setSortChangeListener(SerializableConsumer<Boolean> sortChangeListener) {
+        this.sortChangeListener = sortChangeListener;
+    }
+
+    private static TransactionField toField(QuerySortOrder sortOrder) {
+        return TransactionField.valueOf(sortOrder.getSorted());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.ui;
+
+import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionRepository;
+import com.vaadin.data.provider.DataGenerator;
+import elemental.json.JsonObject;
+
+import java.util.BitSet;
+
+/**
+ * Keeps track of rows that the client side of a grid currently has.
+ *
+ * Grid sends rows in the viewport, plus a small cache around it, to the
+ * browser and generates data for each of them. Rows scrolled far enough
+ * away are dropped from the client and destroyed here. Updates to rows
+ * that are not on the client do not need to be pushed, since the row is
+ * generated with current data when it is shown again.
+ *
+ * Rows are kept as bitsets of repository ids. When a subscription is
+ * given, it is kept watching the rows on the client.
+ *
+ * All methods are called while holding the session lock.
+ */
+class VisibleRows implements DataGenerator<Transaction> {
+    private final BitSet visible = new BitSet();
+    private transient BroadcastSubscription subscription;
+
+    @Override
+    public void generateData(Transaction transaction, JsonObject jsonObject) {
+        int id = TransactionRepository.get().idOf(transaction.getName());
+        if (id >= 0) {
+            visible.set(id);
+            if (subscription != null) {
+                subscription.watch(id);
+            }
+        }
+    }
+
+    @Override
+    public void destroyData(Transaction transaction) {
+        int id = TransactionRepository.get().idOf(transaction.getName());
+        if (id >= 0) {
+            visible.clear(id);
+            if (subscription != null) {
+                subscription.unwatch(id);
+            }
+        }
+    }
+
+    @Override
+    public void destroyAllData() {
+        if (subscription != null) {
+            for (int id = visible.nextSetBit(0); id >= 0; id = visible.nextSetBit(id + 1)) {
+                subscription.unwatch(id);
+            }
+        }
+        visible.clear();
+    }
+
+    /**
+     * Interest in rows on the client and in new rows, which change row
+     * count.
+     */
+    Interest interest() {
+        return Interest.ids(visible).withInserts();
+    }
+
+    /**
+     * Keeps subscription watching rows on the client from now on. Interest
+     * of the subscription is expected to be {@link #interest()}.
+     */
+    void setSubscription(BroadcastSubscription subscription) {
+        this.subscription = subscription;
+    }
+
+    /**
+     * @return ids of updated rows that are on the client and need to be
+     * refreshed now
+     */
+    BitSet acceptUpdates(BitSet updatedIds) {
+        BitSet refreshed = (BitSet) updatedIds.clone();
+        refreshed.and(visible);
+        return refreshed;
+    }
+}
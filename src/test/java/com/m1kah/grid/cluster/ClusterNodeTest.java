@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.cluster;
+
+import com.m1kah.grid.data.BatchResult;
+import com.m1kah.grid.data.Mutation;
+import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionRepository;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClusterNodeTest {
+    private static final long HEARTBEAT_MILLIS = 10;
+    private static final long TIMEOUT_MILLIS = 100;
+    private final Set<LocalClusterTransport> network = LocalClusterTransport.newNetwork();
+    private final List<ClusterNode> nodes = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        nodes.forEach(ClusterNode::stop);
+    }
+
+    @Test
+    public void electsLiveNodeWithSmallestId() throws Exception {
+        ClusterNode a = start("a", new TransactionRepository());
+        ClusterNode b = start("b", new TransactionRepository());
+        ClusterNode c = start("c", new TransactionRepository());
+
+        await(a::isLeader);
+        assertFalse(b.isLeader());
+        assertFalse(c.isLeader());
+
+        a.stop();
+        await(b::isLeader);
+        assertFalse(c.isLeader());
+    }
+
+    @Test
+    public void propagatesBatchesToFollowers() throws Exception {
+        TransactionRepository leaderRepository = new TransactionRepository();
+        TransactionRepository followerRepository = new TransactionRepository();
+        // Follower only has this once it has a complete copy from the
+        // leader.
+        leaderRepository.insert(new Transaction("Jade", 777, 1));
+        ClusterNode leader = start("a", leaderRepository);
+        ClusterNode follower = start("b", followerRepository);
+        await(leader::isLeader);
+        await(() -> amountOf(followerRepository, "Jade") == 777);
+        long resyncs = follower.getResyncCount();
+
+        BatchResult result = leaderRepository.applyBatch(Collections.singletonList(
+                Mutation.upsert(new Transaction("Pearl", 12345, 1))));
+        leader.publish(result.getIds());
+
+        await(() -> amountOf(followerRepository, "Pearl") == 12345);
+        assertEquals(resyncs, follower.getResyncCount());
+    }
+
+    @Test
+    public void asksForAllTransactionsAfterMissingBatch() throws Exception {
+        TransactionRepository leaderRepository = new TransactionRepository();
+        TransactionRepository followerRepository = new TransactionRepository();
+        leaderRepository.insert(new Transaction("Jade", 777, 1));
+        ClusterNode leader = start("a", leaderRepository);
+        LossyTransport lossy = new LossyTransport(LocalClusterTransport.join(network));
+        ClusterNode follower = start("b", followerRepository, lossy);
+        await(leader::isLeader);
+        await(() -> amountOf(followerRepository, "Jade") == 777);
+        long resyncs = follower.getResyncCount();
+
+        lossy.dropChanges = 1;
+        Transaction ruby = leaderRepository.find("Ruby");
+        leaderRepository.update(ruby.withAmount(ruby.getAmountMinor() + 1, 1));
+        leader.publish(ids(leaderRepository, "Ruby"));
+
+        await(() -> amountOf(followerRepository, "Ruby") == ruby.getAmountMinor() + 1);
+        assertTrue(follower.getResyncCount() > resyncs);
+    }
+
+    @Test
+    public void sendsAllTransactionsToNodeThatJoinsLate() throws Exception {
+        TransactionRepository leaderRepository = new TransactionRepository();
+        ClusterNode leader = start("a", leaderRepository);
+        start("b", new TransactionRepository());
+        await(leader::isLeader);
+        leaderRepository.insert(new Transaction("Pearl", 12345, 1));
+
+        TransactionRepository lateRepository = new TransactionRepository();
+        ClusterNode late = start("c", lateRepository);
+
+        await(() -> amounts(lateRepository).equals(amounts(leaderRepository)));
+        assertEquals(0, late.getResyncCount());
+    }
+
+    private ClusterNode start(String nodeId, TransactionRepository repository) throws IOException {
+        return start(nodeId, repository, LocalClusterTransport.join(network));
+    }
+
+    private ClusterNode start(String nodeId,
+                              TransactionRepository repository,
+                              ClusterTransport transport) throws IOException {
+        ClusterNode node = new ClusterNode(
+                nodeId, transport, repository, result -> { }, HEARTBEAT_MILLIS, TIMEOUT_MILLIS);
+        node.start();
+        nodes.add(node);
+        return node;
+    }
+
+    private static BitSet ids(TransactionRepository repository, String name) {
+        BitSet ids = new BitSet();
+        ids.set(repository.idOf(name));
+        return ids;
+    }
+
+    private static long amountOf(TransactionRepository repository, String name) {
+        Transaction transaction = repository.find(name);
+        return transaction != null ? transaction.getAmountMinor() : -1;
+    }
+
+    private static Map<String, Long> amounts(TransactionRepository repository) {
+        Map<String, Long> amounts = new HashMap<>();
+        for (Transaction transaction : repository.findAll()) {
+            amounts.put(transaction.getName(), transaction.getAmountMinor());
+        }
+        return amounts;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > end) {
+                fail("Condition not met in time");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Drops given number of change batches on the receiving side.
+     */
+    private static class LossyTransport implements ClusterTransport {
+        private final ClusterTransport transport;
+        private volatile int dropChanges;
+
+        LossyTransport(ClusterTransport transport) {
+            this.transport = transport;
+        }
+
+        @Override
+        public void start(Consumer<ClusterMessage> receiver) throws IOException {
+            transport.start(message -> {
+                if (message.getType() == ClusterMessage.Type.CHANGES && dropChanges > 0) {
+                    dropChanges--;
+                    return;
+                }
+                receiver.accept(message);
+            });
+        }
+
+        @Override
+        public void send(ClusterMessage message) {
+            transport.send(message);
+        }
+
+        @Override
+        public void close() {
+            transport.close();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeEncoderTest {
+    private final ChangeEncoder encoder = new ChangeEncoder();
+    private final ChangeDecoder decoder = new ChangeDecoder();
+    private final ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+    @Test
+    public void decodesAllFieldsOfTransactions() {
+        List<Transaction> transactions = Arrays.asList(
+                new Transaction("Opal", 12345, 1_500_000_000_000L),
+                new Transaction("Ruby", 99, 1_500_000_000_250L));
+
+        encode(10, 1_500_000_000_000L, transactions);
+
+        assertEquals(2, decoder.begin(buffer));
+        assertTrue(decoder.next());
+        assertEquals("Opal", decoder.getName());
+        assertEquals(10, decoder.getVersion());
+        assertEquals(12345, decoder.getAmountMinor());
+        assertEquals(1_500_000_000_000L, decoder.getUpdatedMillis());
+        assertTrue(decoder.next());
+        assertEquals("Ruby", decoder.getName());
+        assertEquals(11, decoder.getVersion());
+        assertEquals(99, decoder.getAmountMinor());
+        assertEquals(1_500_000_000_250L, decoder.getUpdatedMillis());
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void sendsInternedNamesOnlyOnce() {
+        List<Transaction> transactions = Arrays.asList(new Transaction("A rather long transaction name", 1, 0));
+        int first = encode(0, 0, transactions);
+        decoder.begin(buffer);
+        decoder.next();
+        buffer.clear();
+        int second = encode(1, 0, transactions);
+
+        assertTrue(second < first);
+        decoder.begin(buffer);
+        assertTrue(decoder.next());
+        assertEquals("A rather long transaction name", decoder.getName());
+    }
+
+    @Test
+    public void resetMakesNextBatchSelfContained() {
+        List<Transaction> transactions = Arrays.asList(new Transaction("Opal", 1, 0));
+        encode(0, 0, transactions);
+        buffer.clear();
+        encoder.reset();
+        encode(1, 0, transactions);
+
+        ChangeDecoder fresh = new ChangeDecoder();
+        fresh.begin(buffer);
+        assertTrue(fresh.next());
+        assertEquals("Opal", fresh.getName());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void internedNameNeedsEarlierBatch() {
+        List<Transaction> transactions = Arrays.asList(new Transaction("Opal", 1, 0));
+        encode(0, 0, transactions);
+        buffer.clear();
+        encode(1, 0, transactions);
+
+        decoder.begin(buffer);
+        decoder.next();
+    }
+
+    @Test
+    public void marksInserts() {
+        encoder.begin(buffer, 0, 0);
+        encoder.add(new TransactionChange(
+                1, 0, new Transaction("Opal", 0, 0), true, EnumSet.allOf(TransactionField.class)));
+        encoder.add(new TransactionChange(
+                2, 0, new Transaction("Opal", 5, 0), false, EnumSet.of(TransactionField.AMOUNT)));
+        encoder.finish();
+        buffer.flip();
+
+        decoder.begin(buffer);
+        decoder.next();
+        assertTrue(decoder.isInsert());
+        decoder.next();
+        assertFalse(decoder.isInsert());
+    }
+
+    @Test
+    public void writesOnlyChangedFields() {
+        Transaction previous = new Transaction("Opal", 100, 1000);
+        encoder.begin(buffer, 0, 0);
+        encoder.add(new TransactionChange(
+                1, 0, previous.withAmount(250, 2000), false, EnumSet.of(TransactionField.AMOUNT)));
+        encoder.finish();
+        buffer.flip();
+
+        decoder.begin(buffer);
+        decoder.next();
+        assertTrue(decoder.hasField(TransactionField.AMOUNT));
+        assertFalse(decoder.hasField(TransactionField.UPDATED));
+        Transaction decoded = decoder.toTransaction(previous);
+        assertEquals(250, decoded.getAmountMinor());
+        assertEquals(1000, decoded.getUpdatedMillis());
+    }
+
+    @Test
+    public void decodesNegativeDeltas() {
+        List<Transaction> transactions = Arrays.asList(
+                new Transaction("Opal", -5000, 2000),
+                new Transaction("Ruby", Long.MIN_VALUE + 1, 1000));
+        encoder.begin(buffer, 100, 3000);
+        encoder.add(100, transactions.get(0));
+        encoder.add(40, transactions.get(1));
+        encoder.finish();
+        buffer.flip();
+
+        decoder.begin(buffer);
+        decoder.next();
+        assertEquals(100, decoder.getVersion());
+        assertEquals(-5000, decoder.getAmountMinor());
+        assertEquals(2000, decoder.getUpdatedMillis());
+        decoder.next();
+        assertEquals(40, decoder.getVersion());
+        assertEquals(Long.MIN_VALUE + 1, decoder.getAmountMinor());
+        assertEquals(1000, decoder.getUpdatedMillis());
+    }
+
+    @Test
+    public void decodesNonAsciiNames() {
+        List<String> names = Arrays.asList("Ödön", "Ωmega", "東京", "Grüße €");
+        encoder.begin(buffer, 0, 0);
+        for (String name : names) {
+            encoder.add(0, new Transaction(name, 0, 0));
+        }
+        encoder.finish();
+        buffer.flip();
+
+        decoder.begin(buffer);
+        for (String name : names) {
+            assertTrue(decoder.next());
+            assertEquals(name, decoder.getName());
+        }
+    }
+
+    @Test
+    public void leavesBufferAsItWasWhenRecordDoesNotFit() {
+        ByteBuffer small = ByteBuffer.allocate(64);
+        encoder.begin(small, 0, 0);
+        assertTrue(encoder.add(0, new Transaction("Opal", 1, 0)));
+        int position = small.position();
+
+        assertFalse(encoder.add(0, new Transaction("A name that does not fit in what is left", 2, 0)));
+        assertEquals(position, small.position());
+        assertEquals(1, encoder.finish());
+
+        small.flip();
+        assertEquals(1, decoder.begin(small));
+        assertTrue(decoder.next());
+        assertEquals("Opal", decoder.getName());
+        assertFalse(decoder.next());
+    }
+
+    /**
+     * Encodes transactions with consecutive versions and leaves buffer
+     * ready for reading.
+     *
+     * @return bytes written
+     */
+    private int encode(long version, long baseMillis, List<Transaction> transactions) {
+        encoder.begin(buffer, version, baseMillis);
+        for (int i = 0; i < transactions.size(); i++) {
+            assertTrue(encoder.add(version + i, transactions.get(i)));
+        }
+        encoder.finish();
+        buffer.flip();
+        return buffer.limit();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeLogTest {
+    private final ChangeLog changeLog = new ChangeLog(3);
+
+    @Test
+    public void returnsChangesAfterVersionInOrder() {
+        append("a");
+        append("b");
+        append("c");
+
+        List<TransactionChange> changes = changeLog.changesSince(1).get();
+
+        assertEquals(2, changes.size());
+        assertEquals("b", changes.get(0).getName());
+        assertEquals(2, changes.get(0).getVersion());
+        assertEquals("c", changes.get(1).getName());
+        assertEquals(3, changes.get(1).getVersion());
+    }
+
+    @Test
+    public void returnsNoChangesWhenUpToDate() {
+        append("a");
+
+        assertEquals(0, changeLog.changesSince(1).get().size());
+        assertEquals(0, new ChangeLog(3).changesSince(0).get().size());
+    }
+
+    @Test
+    public void reachesBackCapacityChanges() {
+        for (int i = 0; i < 5; i++) {
+            append("t" + i);
+        }
+
+        Optional<List<TransactionChange>> changes = changeLog.changesSince(2);
+
+        assertTrue(changes.isPresent());
+        assertEquals(3, changes.get().size());
+        assertEquals("t2", changes.get().get(0).getName());
+    }
+
+    @Test
+    public void overflowsWhenChangesHaveBeenOverwritten() {
+        for (int i = 0; i < 5; i++) {
+            append("t" + i);
+        }
+
+        assertFalse(changeLog.changesSince(1).isPresent());
+        assertFalse(changeLog.changesSince(0).isPresent());
+        assertEquals(5, changeLog.version());
+    }
+
+    private void append(String name) {
+        changeLog.append(0, Transaction.create(name), false, EnumSet.of(TransactionField.AMOUNT));
+    }
+}
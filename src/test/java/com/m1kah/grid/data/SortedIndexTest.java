@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SortedIndexTest {
+    private final SortedIndex<Long> index = new SortedIndex<>(Transaction::getAmountMinor);
+
+    @Test
+    public void pagesInKeyOrder() {
+        index.add(new Transaction("b", 30, 0));
+        index.add(new Transaction("a", 10, 0));
+        index.add(new Transaction("c", 20, 0));
+
+        assertEquals(Arrays.asList("a", "c", "b"), index.page(0, 10, true));
+        assertEquals(Arrays.asList("b", "c", "a"), index.page(0, 10, false));
+        assertEquals(Collections.singletonList("c"), index.page(1, 1, true));
+        assertEquals(Collections.singletonList("c"), index.page(1, 1, false));
+        assertEquals(Collections.emptyList(), index.page(3, 10, true));
+    }
+
+    @Test
+    public void ordersEqualKeysByName() {
+        index.add(new Transaction("b", 10, 0));
+        index.add(new Transaction("c", 10, 0));
+        index.add(new Transaction("a", 10, 0));
+
+        assertEquals(Arrays.asList("a", "b", "c"), index.page(0, 10, true));
+        assertEquals(Arrays.asList("c", "b", "a"), index.page(0, 10, false));
+    }
+
+    @Test
+    public void movesTransactionWhenKeyChanges() {
+        Transaction a = new Transaction("a", 10, 0);
+        index.add(a);
+        index.add(new Transaction("b", 20, 0));
+        index.add(new Transaction("c", 30, 0));
+
+        index.move(a, a.withAmount(40, 1));
+
+        assertEquals(Arrays.asList("b", "c", "a"), index.page(0, 10, true));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void addsManyAtOnceAmongExisting() {
+        index.add(new Transaction("a", 20, 0));
+        index.addAll(Arrays.asList(new Transaction("b", 10, 0), new Transaction("c", 30, 0)));
+
+        assertEquals(Arrays.asList("b", "a", "c"), index.page(0, 10, true));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void findsSmallestAndLargestKey() {
+        assertNull(index.firstKey(true));
+
+        index.add(new Transaction("a", 20, 0));
+        index.add(new Transaction("b", -5, 0));
+        index.add(new Transaction("c", 7, 0));
+
+        assertEquals(Long.valueOf(-5), index.firstKey(true));
+        assertEquals(Long.valueOf(20), index.firstKey(false));
+    }
+
+    @Test
+    public void matchesSortedListAfterRandomMoves() {
+        Random random = new Random(1);
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            transactions.add(new Transaction("t" + i, random.nextInt(100), 0));
+        }
+        index.addAll(transactions.subList(0, 250));
+        for (Transaction transaction : transactions.subList(250, 500)) {
+            index.add(transaction);
+        }
+        for (int i = 0; i < 2000; i++) {
+            int position = random.nextInt(transactions.size());
+            Transaction previous = transactions.get(position);
+            Transaction current = previous.withAmount(random.nextInt(100), 0);
+            index.move(previous, current);
+            transactions.set(position, current);
+        }
+
+        List<String> expected = transactions.stream()
+                .sorted(Comparator.comparingLong(Transaction::getAmountMinor).thenComparing(Transaction::getName))
+                .map(Transaction::getName)
+                .collect(Collectors.toList());
+        assertEquals(expected, index.page(0, transactions.size(), true));
+        assertEquals(expected.subList(100, 150), index.page(100, 50, true));
+        Collections.reverse(expected);
+        assertEquals(expected.subList(0, 20), index.page(0, 20, false));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionRepositoryTest {
+    private final TransactionRepository repository = new TransactionRepository();
+
+    @Test
+    public void returnsTotalsAfterBatchWithBatch() {
+        TransactionAggregates before = repository.aggregates();
+
+        BatchResult result = repository.applyBatch(Arrays.asList(
+                Mutation.insert(new Transaction("Pearl", 100, 0)),
+                Mutation.insert(new Transaction("Jade", 250, 0))));
+
+        TransactionAggregates aggregates = result.getAggregates();
+        assertTrue(result.changesAggregates());
+        assertEquals(before.getCount() + 2, aggregates.getCount());
+        assertEquals(before.getSumMinor() + 350, aggregates.getSumMinor());
+        assertEquals(result.getVersion(), aggregates.getVersion());
+        assertSame(repository.aggregates(), aggregates);
+    }
+
+    @Test
+    public void updatesTotalsWhenAmountChanges() {
+        repository.insert(new Transaction("Pearl", 100, 0));
+        TransactionAggregates before = repository.aggregates();
+
+        BatchResult result = repository.applyBatch(Collections.singletonList(
+                Mutation.update(new Transaction("Pearl", 40, 1))));
+
+        assertTrue(result.changesAggregates());
+        assertEquals(before.getCount(), result.getAggregates().getCount());
+        assertEquals(before.getSumMinor() - 60, result.getAggregates().getSumMinor());
+        assertTrue(result.getAggregates().getVersion() > before.getVersion());
+    }
+
+    @Test
+    public void keepsTotalsWhenAmountsDoNotChange() {
+        repository.insert(new Transaction("Pearl", 100, 0));
+        TransactionAggregates before = repository.aggregates();
+
+        BatchResult result = repository.applyBatch(Collections.singletonList(
+                Mutation.update(new Transaction("Pearl", 100, 1))));
+
+        assertFalse(result.changesAggregates());
+        assertSame(before, result.getAggregates());
+    }
+
+    @Test
+    public void readersSeeNoneOrAllOfBatch() throws InterruptedException {
+        // Every batch gives all transactions the same amount, so a reader
+        // seeing two different amounts has seen part of a batch.
+        List<Transaction> transactions = repository.findAll();
+        BitSet allIds = new BitSet();
+        allIds.set(0, transactions.size());
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            for (long amount = 1; amount <= 2000; amount++) {
+                List<Mutation> mutations = new ArrayList<>(transactions.size());
+                for (Transaction transaction : transactions) {
+                    mutations.add(Mutation.update(transaction.withAmount(amount, amount)));
+                }
+                repository.applyBatch(mutations);
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            boolean byId = i == 1;
+            readers.add(new Thread(() -> {
+                while (writer.isAlive() && failure.get() == null) {
+                    List<Transaction> read = byId ? repository.findAll(allIds) : repository.findAll();
+                    long amount = read.get(0).getAmountMinor();
+                    for (Transaction transaction : read) {
+                        if (transaction.getAmountMinor() != amount) {
+                            failure.compareAndSet(null, "Read part of a batch: " + read);
+                        }
+                    }
+                }
+            }));
+        }
+        writer.start();
+        readers.forEach(Thread::start);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get());
+        for (Transaction transaction : repository.findAll()) {
+            assertEquals(2000, transaction.getAmountMinor());
+        }
+    }
+
+    @Test
+    public void findAllReturnsCopy() {
+        List<Transaction> all = repository.findAll();
+        repository.insert(new Transaction("Pearl", 100, 0));
+        Transaction first = all.get(0);
+        repository.update(first.withAmount(first.getAmountMinor() + 1, 1));
+
+        assertEquals(repository.count() - 1, all.size());
+        assertSame(first, all.get(0));
+    }
+
+    @Test
+    public void findsPageInInsertionOrder() {
+        List<Transaction> all = repository.findAll();
+
+        assertEquals(all.subList(2, 5), repository.findAll(2, 3));
+        assertEquals(all.subList(6, all.size()), repository.findAll(6, 50));
+        assertTrue(repository.findAll(all.size(), 10).isEmpty());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TransactionStoreTest {
+    private static final long NEVER = Long.MAX_VALUE;
+    private Path directory;
+    private Path journal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("transaction-store");
+        journal = directory.resolve("transactions.journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void replaysJournalAfterReopening() throws IOException {
+        write(NEVER, new Transaction("Pearl", 100, 1), new Transaction("Jade", 200, 1));
+        write(NEVER, new Transaction("Pearl", 150, 2));
+
+        TransactionRepository repository = reopen(NEVER);
+        assertEquals(150, repository.find("Pearl").getAmountMinor());
+        assertEquals(200, repository.find("Jade").getAmountMinor());
+    }
+
+    @Test
+    public void cutsOffTornFinalFrame() throws IOException {
+        write(NEVER, new Transaction("Pearl", 100, 1));
+        long validSize = Files.size(journal);
+        // Header of a frame whose payload never reached disk.
+        Files.write(journal, new byte[] {0, 0, 0, 100, 1, 2, 3, 4, 5, 6, 7, 8, 9}, StandardOpenOption.APPEND);
+
+        TransactionRepository repository = reopen(NEVER);
+        assertEquals(100, repository.find("Pearl").getAmountMinor());
+        assertEquals(validSize, Files.size(journal));
+    }
+
+    @Test
+    public void cutsOffFinalFrameWithWrongChecksum() throws IOException {
+        write(NEVER, new Transaction("Pearl", 100, 1));
+        long validSize = Files.size(journal);
+        write(NEVER, new Transaction("Jade", 200, 1));
+        try (RandomAccessFile file = new RandomAccessFile(journal.toFile(), "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xff);
+        }
+
+        TransactionRepository repository = reopen(NEVER);
+        assertEquals(100, repository.find("Pearl").getAmountMinor());
+        assertNull(repository.find("Jade"));
+        assertEquals(validSize, Files.size(journal));
+    }
+
+    @Test
+    public void skipsJournalOfOlderGeneration() throws IOException {
+        write(NEVER, new Transaction("Pearl", 100, 1));
+        Path stale = directory.resolve("stale.journal");
+        Files.copy(journal, stale);
+        // Every write is followed by a snapshot, which starts a new
+        // generation of the journal.
+        write(0, new Transaction("Pearl", 200, 2));
+        // Crashed after the snapshot was moved in place but before the
+        // journal was emptied.
+        Files.copy(stale, journal, StandardCopyOption.REPLACE_EXISTING);
+
+        TransactionRepository repository = reopen(NEVER);
+        assertEquals(200, repository.find("Pearl").getAmountMinor());
+    }
+
+    /**
+     * Opens store, applies transactions as one batch, commits them and
+     * closes the store.
+     */
+    private void write(long snapshotBytes, Transaction... transactions) throws IOException {
+        TransactionRepository repository = new TransactionRepository();
+        TransactionStore store = TransactionStore.open(directory, repository, snapshotBytes, NEVER);
+        List<Mutation> mutations = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            mutations.add(Mutation.upsert(transaction));
+        }
+        store.write(repository.applyBatch(mutations).getIds());
+        store.shutdown();
+    }
+
+    private TransactionRepository reopen(long snapshotBytes) throws IOException {
+        TransactionRepository repository = new TransactionRepository();
+        TransactionStore.open(directory, repository, snapshotBytes, NEVER).shutdown();
+        return repository;
+    }
+}
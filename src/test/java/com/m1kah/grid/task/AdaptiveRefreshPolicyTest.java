@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.task;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveRefreshPolicyTest {
+    private static final int TRANSACTIONS = 100;
+    private static final int LISTENERS = 10;
+    private final AdaptiveRefreshPolicy policy = new AdaptiveRefreshPolicy(5000, 1000, 30000, 2, 0.8, 0.5);
+
+    @Test
+    public void backsOffWhenNothingChanges() {
+        assertEquals(10000, next(5000, 0, 0));
+    }
+
+    @Test
+    public void backsOffToMaxInterval() {
+        long interval = 5000;
+        for (int i = 0; i < 10; i++) {
+            interval = next(interval, 0, 0);
+        }
+        assertEquals(30000, interval);
+    }
+
+    @Test
+    public void speedsUpOnBurst() {
+        assertEquals(2500, next(5000, 80, 0));
+    }
+
+    @Test
+    public void speedsUpToMinInterval() {
+        long interval = 5000;
+        for (int i = 0; i < 10; i++) {
+            interval = next(interval, TRANSACTIONS, 0);
+        }
+        assertEquals(1000, interval);
+    }
+
+    @Test
+    public void slowsDownWhenListenersFallBehind() {
+        assertEquals(10000, next(5000, TRANSACTIONS, 6));
+    }
+
+    @Test
+    public void movesHalfWayBackToBaseInterval() {
+        assertEquals(3000, next(1000, 10, 0));
+        assertEquals(10000, next(15000, 10, 0));
+    }
+
+    @Test
+    public void keepsIntervalAtLeastTwiceRefreshDuration() {
+        assertEquals(6000, policy.nextIntervalMillis(
+                new RefreshOutcome(5000, 3000, TRANSACTIONS, TRANSACTIONS, 0, LISTENERS)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMinIntervalAboveBase() {
+        new AdaptiveRefreshPolicy(1000, 5000, 30000, 2, 0.8, 0.5);
+    }
+
+    private long next(long intervalMillis, int updateCount, int pushQueueDepth) {
+        return policy.nextIntervalMillis(
+                new RefreshOutcome(intervalMillis, 10, updateCount, TRANSACTIONS, pushQueueDepth, LISTENERS));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.ui;
+
+import com.m1kah.grid.data.Mutation;
+import com.m1kah.grid.data.Transaction;
+import com.m1kah.grid.data.TransactionAggregates;
+import com.m1kah.grid.data.TransactionField;
+import com.m1kah.grid.data.TransactionRepository;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PushQueueTest {
+    private final List<BitSet> deliveredIds = new ArrayList<>();
+    private final List<TransactionAggregates> deliveredAggregates = new ArrayList<>();
+    private final PushQueue queue = new PushQueue((ids, fields, aggregates) -> {
+        deliveredIds.add(ids);
+        deliveredAggregates.add(aggregates);
+    });
+    private final TransactionRepository repository = new TransactionRepository();
+
+    @Test
+    public void deliversNewTotalsWithoutIds() {
+        TransactionAggregates aggregates = insert("Pearl");
+
+        assertTrue(queue.offer(new BitSet(), EnumSet.allOf(TransactionField.class), aggregates));
+        assertFalse(queue.drain());
+
+        assertEquals(Collections.singletonList(new BitSet()), deliveredIds);
+        assertSame(aggregates, deliveredAggregates.get(0));
+    }
+
+    @Test
+    public void keepsNewestTotalsOfMergedUpdates() {
+        TransactionAggregates older = insert("Pearl");
+        TransactionAggregates newer = insert("Jade");
+
+        queue.offer(new BitSet(), EnumSet.allOf(TransactionField.class), newer);
+        queue.offer(new BitSet(), EnumSet.allOf(TransactionField.class), older);
+        queue.drain();
+
+        assertEquals(1, deliveredAggregates.size());
+        assertSame(newer, deliveredAggregates.get(0));
+    }
+
+    @Test
+    public void skipsUpdateWithoutIdsWhenTotalsAreNotNewer() {
+        TransactionAggregates aggregates = insert("Pearl");
+        queue.offer(new BitSet(), EnumSet.allOf(TransactionField.class), aggregates);
+        queue.drain();
+
+        assertTrue(queue.offer(new BitSet(), EnumSet.of(TransactionField.UPDATED), aggregates));
+        assertFalse(queue.drain());
+
+        assertEquals(1, deliveredAggregates.size());
+    }
+
+    private TransactionAggregates insert(String name) {
+        return repository.applyBatch(Collections.singletonList(
+                Mutation.insert(new Transaction(name, 100, 0)))).getAggregates();
+    }
+}
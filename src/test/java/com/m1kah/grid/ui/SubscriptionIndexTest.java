@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2017 Mika Hämäläinen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.m1kah.grid.ui;
+
+import com.m1kah.grid.data.Transaction;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SubscriptionIndexTest {
+    private final SubscriptionIndex index = new SubscriptionIndex();
+    private final Map<PushQueue, BitSet> notified = new HashMap<>();
+
+    @Test
+    public void passesAllIdsToListenersInterestedInEverything() {
+        PushQueue queue = queue();
+        index.watchAll(queue, true);
+
+        BitSet changed = ids(1, 5, 9);
+        assertEquals(1, match(changed, ids()));
+        assertSame(changed, notified.get(queue));
+    }
+
+    @Test
+    public void passesOnlyWatchedIds() {
+        PushQueue first = queue();
+        PushQueue second = queue();
+        PushQueue third = queue();
+        index.watch(first, 1);
+        index.watch(first, 5);
+        index.watch(second, 9);
+        index.watch(third, 3);
+
+        assertEquals(2, match(ids(1, 2, 9), ids()));
+        assertEquals(ids(1), notified.get(first));
+        assertEquals(ids(9), notified.get(second));
+        assertNull(notified.get(third));
+    }
+
+    @Test
+    public void stopsPassingUnwatchedIds() {
+        PushQueue queue = queue();
+        index.watch(queue, 1);
+        index.unwatch(queue, 1);
+
+        assertEquals(0, match(ids(1), ids()));
+    }
+
+    @Test
+    public void watchesIdsBeyondInitialCapacity() {
+        PushQueue queue = queue();
+        index.watch(queue, 5000);
+
+        match(ids(4999, 5000), ids());
+        assertEquals(ids(5000), notified.get(queue));
+    }
+
+    @Test
+    public void passesInsertedIdsToInsertListeners() {
+        PushQueue queue = queue();
+        index.watchInserts(queue, true);
+
+        // Id 3 is inserted after a higher id has changed, and id 20 is
+        // higher than any id seen before but only updated.
+        match(ids(10), ids());
+        match(ids(3, 20), ids(3));
+
+        assertEquals(ids(3), notified.get(queue));
+    }
+
+    @Test
+    public void skipsInsertListenersWhenNothingIsInserted() {
+        index.watchInserts(queue(), true);
+
+        assertEquals(0, match(ids(1, 2), ids()));
+    }
+
+    @Test
+    public void passesIdsMatchingPredicate() {
+        PushQueue queue = queue();
+        index.watchMatching(queue, transaction -> transaction.getAmountMinor() > 100);
+
+        match(ids(1, 2, 3), ids());
+        assertEquals(ids(2), notified.get(queue));
+
+        index.watchMatching(queue, null);
+        notified.clear();
+        assertEquals(0, match(ids(2), ids()));
+    }
+
+    @Test
+    public void notifiesListenerOnceWhateverItWatches() {
+        PushQueue queue = queue();
+        index.watchAll(queue, true);
+        index.watch(queue, 1);
+        index.watchInserts(queue, true);
+
+        assertEquals(1, match(ids(1, 2), ids(2)));
+        assertEquals(ids(1, 2), notified.get(queue));
+    }
+
+    @Test
+    public void passesNoIdsToAggregatesListenersWhenTotalsChange() {
+        PushQueue queue = queue();
+        index.watchAggregates(queue, true);
+
+        assertEquals(0, match(ids(1), ids(), false));
+        assertEquals(1, match(ids(1), ids(), true));
+        assertEquals(ids(), notified.get(queue));
+    }
+
+    @Test
+    public void passesWatchedIdsToAggregatesListeners() {
+        PushQueue queue = queue();
+        index.watchAggregates(queue, true);
+        index.watch(queue, 1);
+
+        assertEquals(1, match(ids(1, 2), ids(), true));
+        assertEquals(ids(1), notified.get(queue));
+    }
+
+    private int match(BitSet changed, BitSet inserted) {
+        return match(changed, inserted, false);
+    }
+
+    private int match(BitSet changed, BitSet inserted, boolean aggregatesChanged) {
+        return index.match(
+                changed,
+                inserted,
+                aggregatesChanged,
+                id -> new Transaction("Stone " + id, id == 2 ? 500 : 0, 0),
+                (queue, ids) -> {
+                    BitSet previous = notified.put(queue, ids);
+                    if (previous != null) {
+                        throw new AssertionError("Notified twice");
+                    }
+                });
+    }
+
+    private static PushQueue queue() {
+        return new PushQueue((ids, fields, aggregates) -> { });
+    }
+
+    private static BitSet ids(int... ids) {
+        BitSet bitSet = new BitSet();
+        for (int id : ids) {
+            bitSet.set(id);
+        }
+        return bitSet;
+    }
+}